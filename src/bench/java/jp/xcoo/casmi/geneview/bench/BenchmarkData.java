@@ -0,0 +1,126 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.FeatureStore;
+import jp.xcoo.casmi.geneview.data.SymbolTable;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+import jp.xcoo.casmi.geneview.parse.DASXMLWriter;
+import jp.xcoo.casmi.geneview.source.FeatureGenerator;
+
+/**
+ * reproducible feature data for the benchmarks
+ */
+public class BenchmarkData {
+
+	public static final long SEED = 20110101L;
+
+	public static final String CHR = "1";
+	public static final int START = 1;
+
+	// mean distance between gene starts, as on a gene-dense chromosome
+	private static final int MEAN_GENE_GAP = 30000;
+
+	// lower bound of the mean of exons per gene with 2 to 12 exons
+	private static final int MIN_MEAN_EXONS = 4;
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Create exons of genes on chromosome 1 from START on, with 2 to 12 exons per gene.
+	 */
+	public static List<Exon> createExons(int numExons) {
+		return createExons(numExons, false);
+	}
+
+	/**
+	 * Create exons of genes on chromosome 1 from START on, with 2 to 12 exons per gene.
+	 * When clustered, most genes are piled up into dense overlapping clusters.
+	 */
+	public static List<Exon> createExons(int numExons, boolean clustered) {
+		// enough genes for numExons, the surplus at the end is cut off
+		int numGenes = numExons / MIN_MEAN_EXONS + 1;
+
+		FeatureGenerator generator = new FeatureGenerator(SEED, numGenes);
+		generator.setChromosomes(new String[] {CHR}, new int[] {numGenes * MEAN_GENE_GAP});
+		generator.setExonsPerGene(2, 7, 12);
+
+		if( clustered ) {
+			generator.setClusters(0.9, 50);
+		}
+
+		List<Exon> exons = generator.generate();
+
+		return new ArrayList<Exon>(exons.subList(0, Math.min(numExons, exons.size())));
+	}
+
+	/**
+	 * Returns the range covered by exons.
+	 */
+	public static ViewScale getRange(List<Exon> exons) {
+		int end = START;
+
+		for( Exon e : exons ) {
+			end = Math.max(end, Math.max(e.getStart(), e.getEnd()));
+		}
+
+		return new ViewScale(CHR, START, end);
+	}
+
+	public static FeatureStore createStore(List<Exon> exons) {
+		FeatureStore store = new FeatureStore(new SymbolTable());
+
+		for( Exon e : exons ) {
+			store.add(e);
+		}
+
+		return store;
+	}
+
+	/**
+	 * Write exons as a DAS features document of one segment.
+	 */
+	public static byte[] createDocument(List<Exon> exons) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Writer writer = new OutputStreamWriter(bytes, "UTF-8");
+
+		DASXMLWriter das = new DASXMLWriter(writer);
+		das.startDocument("http://localhost/das/hg19/features");
+		das.startSegment(getRange(exons));
+
+		for( Exon e : exons ) {
+			das.writeFeature(e);
+		}
+
+		das.endSegment();
+		das.endDocument();
+		writer.close();
+
+		return bytes.toByteArray();
+	}
+}
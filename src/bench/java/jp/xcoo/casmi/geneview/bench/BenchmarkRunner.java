@@ -0,0 +1,56 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * runs the benchmarks matching the given patterns (all of them by default), reporting
+ * throughput and allocation rate (GC profiler) and writing results to jmh-result.json
+ *
+ * <pre>
+ * mvn -P benchmark package exec:exec@benchmark -Dbench=ParseBenchmark
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+	private static final String RESULT_FILE = "target/jmh-result.json";
+
+	public static void main(String[] args) throws RunnerException {
+		ChainedOptionsBuilder options = new OptionsBuilder()
+			.addProfiler(GCProfiler.class)
+			.resultFormat(ResultFormatType.JSON)
+			.result(RESULT_FILE);
+
+		if( args.length == 0 ) {
+			options.include("jp\\.xcoo\\.casmi\\.geneview\\..*Benchmark");
+		}
+
+		for( String pattern : args ) {
+			options.include(pattern);
+		}
+
+		new Runner(options.build()).run();
+	}
+}
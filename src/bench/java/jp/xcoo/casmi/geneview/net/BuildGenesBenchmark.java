@@ -0,0 +1,85 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.net;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jp.xcoo.casmi.geneview.bench.BenchmarkData;
+import jp.xcoo.casmi.geneview.data.FeatureStore;
+import jp.xcoo.casmi.geneview.data.Gene;
+import jp.xcoo.casmi.geneview.layout.GeneAssembler;
+import jp.xcoo.casmi.geneview.layout.LaneLayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * benchmarks of building genes from loaded features: assembly, lane ordering and both
+ * together as done on every merge of GeneLoader
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BuildGenesBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int numFeatures;
+
+	// genes piled up into dense overlapping clusters
+	@Param({"false", "true"})
+	public boolean clustered;
+
+	private FeatureStore store;
+	private List<Gene> genes;
+
+	@Setup
+	public void setup() {
+		store = BenchmarkData.createStore(BenchmarkData.createExons(numFeatures, clustered));
+		genes = GeneAssembler.assemble(store);
+	}
+
+	@Benchmark
+	public List<Gene> buildGenes() {
+		return GeneLoader.buildGenes(store);
+	}
+
+	@Benchmark
+	public List<Gene> assemble() {
+		return GeneAssembler.assemble(store);
+	}
+
+	@Benchmark
+	public List<Gene> laneLayout() {
+		LaneLayout.layout(genes);
+		return genes;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.parse;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import jp.xcoo.casmi.geneview.bench.BenchmarkData;
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.SymbolTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import casmi.io.exception.ParserException;
+import casmi.io.parser.XML;
+
+/**
+ * benchmarks of parsing a DAS features document: streaming, DOM and parallel DOM
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int numFeatures;
+
+	private byte[] document;
+	private XML dom;
+
+	@Setup
+	public void setup() throws IOException, ParserException {
+		List<Exon> exons = BenchmarkData.createExons(numFeatures);
+		document = BenchmarkData.createDocument(exons);
+
+		// the DOM is built once; only the walk over it is measured
+		File file = File.createTempFile("geneview-bench", ".xml");
+		file.deleteOnExit();
+
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(document);
+		} finally {
+			out.close();
+		}
+
+		dom = new XML();
+		dom.parseFile(file);
+	}
+
+	@Benchmark
+	public List<Exon> streamParse() throws XMLStreamException {
+		FeatureCollector collector = new FeatureCollector();
+		new GeneStreamParser(new SymbolTable()).parse(new ByteArrayInputStream(document), collector);
+		return collector.getExons();
+	}
+
+	@Benchmark
+	public List<Exon> domParse() {
+		GeneXMLParser parser = new GeneXMLParser(new SymbolTable());
+		parser.parse(dom);
+		return parser.getExons();
+	}
+
+	@Benchmark
+	public List<Exon> parallelDomParse() {
+		GeneXMLParser parser = new GeneXMLParser(new SymbolTable(), GeneXMLParser.getDefaultPool());
+		parser.parse(dom);
+		return parser.getExons();
+	}
+}
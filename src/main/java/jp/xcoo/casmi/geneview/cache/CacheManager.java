@@ -0,0 +1,732 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import jp.xcoo.casmi.geneview.metrics.Metrics;
+
+/**
+ * size-bounded disk cache with a persistent manifest
+ *
+ * Entries are files in one directory, named by a key derived from their source (see
+ * createKey) and an extension. The manifest records size, last access time, compression,
+ * uncompressed size, validation time, HTTP validators and source of each entry. When the
+ * total size exceeds the byte budget, least recently used entries are deleted.
+ *
+ * Each entry may be compressed on its own (see Compression); openEntry() decompresses
+ * entries while they are read.
+ *
+ * Entries expire a time to live after they were written or last revalidated. Expired
+ * entries are still readable; users which can ask their source whether an entry changed
+ * (such as with a conditional HTTP request) do so and call revalidate() if it did not.
+ *
+ * Entries are written to a temporary file first and renamed on commit, so a reader
+ * never sees a partially written entry. The manifest is shared by the threads of one
+ * process only: a manager locks its directory for the lifetime of the process, and
+ * uses a numbered sibling directory (such as geneview-1) if another process holds the
+ * lock. Files left by interrupted writes are deleted when the directory is opened;
+ * files not named like entries are never touched.
+ *
+ * Changes are written to the manifest in batches, at most a few seconds after they are
+ * made, on flush() and when the JVM exits. Entries committed after the last write are
+ * lost by a crash: their files are deleted as unknown when the directory is opened
+ * again, and entries whose files are gone are dropped when they are looked up.
+ */
+public class CacheManager {
+
+	public static final String DIRECTORY_PROPERTY = "geneview.cache.dir";
+	public static final String BUDGET_PROPERTY = "geneview.cache.maxBytes";
+	public static final String COMPRESSION_PROPERTY = "geneview.cache.compression";
+	public static final String TTL_PROPERTY = "geneview.cache.ttlSeconds";
+
+	public static final String DEFAULT_DIRECTORY_NAME = "geneview";
+	public static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+	public static final long DEFAULT_TTL = 7L * 24 * 60 * 60 * 1000;
+
+	private static final String MANIFEST_FILE_NAME = "manifest.txt";
+	private static final String LOCK_FILE_NAME = "lock";
+	private static final String PART_SUFFIX = ".part";
+	private static final String CHARSET = "UTF-8";
+	private static final String SEPARATOR = "\t";
+
+	// changes are written to the manifest at most this long after they are made
+	private static final long MANIFEST_SAVE_DELAY = 5 * 1000;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	// names of entries, a key from createKey() and an extension
+	private static final Pattern ENTRY_NAME = Pattern.compile("[0-9a-f]{64}(\\.[0-9A-Za-z]+)?");
+
+	// sibling directories tried when the directory is locked by another process
+	private static final int MAX_DIRECTORIES = 16;
+
+	private static CacheManager defaultManager = null;
+
+	// writes manifests of all managers in the background
+	private static final ScheduledExecutorService MANIFEST_WRITER =
+		Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "cache-manifest");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+	private final File directory;
+	private final long budget;
+
+	// lock on the directory, held until the process exits; null if it could not be taken
+	private final FileLock lock;
+
+	// compression of entries written by users which do not choose one
+	private volatile Compression compression = Compression.NONE;
+
+	// milliseconds, negative if entries never expire
+	private volatile long ttl = DEFAULT_TTL;
+
+	// entries in order of access, least recently used first
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long totalSize = 0;
+	private long totalRawSize = 0;
+
+	// true if the manifest is behind the entries, and if a write has been scheduled
+	private boolean dirty = false;
+	private boolean saveScheduled = false;
+
+	public CacheManager(File directory, long budget) {
+		this.budget = budget;
+
+		FileLock lock = null;
+		File locked = directory;
+
+		for( int i = 0; i < MAX_DIRECTORIES && lock == null; i++ ) {
+			locked = i == 0 ? directory : new File(directory.getPath() + "-" + i);
+			lock = tryLock(locked);
+		}
+
+		if( lock == null ) {
+			System.err.println("can not lock cache directory " + directory + ", it may be shared with another process");
+			locked = directory;
+		}
+
+		this.directory = locked;
+		this.lock = lock;
+
+		loadManifest();
+
+		Runtime.getRuntime().addShutdownHook(new Thread("cache-manifest-exit") {
+
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+	}
+
+	/**
+	 * Returns the cache manager configured by the system properties geneview.cache.dir,
+	 * geneview.cache.maxBytes, geneview.cache.compression and geneview.cache.ttlSeconds,
+	 * by default a directory in the JVM temp dir with uncompressed entries expiring after
+	 * a week.
+	 */
+	public static synchronized CacheManager getDefault() {
+		if( defaultManager == null ) {
+			String path = System.getProperty(DIRECTORY_PROPERTY);
+
+			File directory = path != null ? new File(path)
+			                              : new File(casmi.util.SystemUtil.JAVA_TMP_PATH, DEFAULT_DIRECTORY_NAME);
+
+			defaultManager = new CacheManager(directory, Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET));
+
+			String compression = System.getProperty(COMPRESSION_PROPERTY);
+
+			if( compression != null ) {
+				try {
+					defaultManager.setCompression(Compression.parse(compression));
+				} catch (IllegalArgumentException e) {
+					System.err.println("unknown cache compression " + compression);
+				}
+			}
+
+			Long ttl = Long.getLong(TTL_PROPERTY);
+
+			if( ttl != null ) {
+				defaultManager.setTimeToLive(ttl < 0 ? -1 : ttl * 1000);
+			}
+		}
+
+		return defaultManager;
+	}
+
+	/**
+	 * Create a key for a source (such as a URL): the SHA-256 digest of its UTF-8 bytes in hex.
+	 */
+	public static String createKey(String source) {
+		MessageDigest md;
+
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+
+		byte[] digest;
+
+		try {
+			digest = md.digest(source.getBytes(CHARSET));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		char[] hex = new char[digest.length * 2];
+		for( int i = 0; i < digest.length; i++ ) {
+			hex[i * 2] = HEX[(digest[i] >> 4) & 0x0f];
+			hex[i * 2 + 1] = HEX[digest[i] & 0x0f];
+		}
+
+		return new String(hex);
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the compression for entries written by users which do not choose one.
+	 */
+	public Compression getCompression() {
+		return compression;
+	}
+
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Returns the time in milliseconds after which entries expire, negative if they never expire.
+	 */
+	public long getTimeToLive() {
+		return ttl;
+	}
+
+	public void setTimeToLive(long ttl) {
+		this.ttl = ttl;
+	}
+
+	public synchronized long getTotalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * Returns the uncompressed size of all entries divided by their size on disk.
+	 */
+	public synchronized double getCompressionRatio() {
+		return totalSize == 0 ? 1.0 : (double)totalRawSize / totalSize;
+	}
+
+	public synchronized int getNumEntries() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the file of an entry and marks it as used, or null if there is no such entry.
+	 */
+	public synchronized File lookup(String name) {
+		Entry entry = entries.get(name);
+
+		if( entry == null ) {
+			Metrics.CACHE_MISSES.increment();
+			return null;
+		}
+
+		File file = new File(directory, name);
+
+		if( !file.isFile() ) {
+			remove(name);
+			changed();
+			Metrics.CACHE_MISSES.increment();
+			return null;
+		}
+
+		Metrics.CACHE_HITS.increment();
+
+		entry.lastAccess = System.currentTimeMillis();
+		changed();
+
+		return file;
+	}
+
+	/**
+	 * Returns the compression of an entry, or null if there is no such entry.
+	 */
+	public synchronized Compression getCompression(String name) {
+		Entry entry = entries.get(name);
+		return entry == null ? null : entry.compression;
+	}
+
+	/**
+	 * Returns true if an entry exists and was written or revalidated longer than the
+	 * time to live ago.
+	 */
+	public synchronized boolean isExpired(String name) {
+		Entry entry = entries.get(name);
+
+		return entry != null && ttl >= 0 && System.currentTimeMillis() - entry.validated > ttl;
+	}
+
+	/**
+	 * Returns the HTTP entity tag the entry was written with, or null.
+	 */
+	public synchronized String getETag(String name) {
+		Entry entry = entries.get(name);
+		return entry == null ? null : entry.etag;
+	}
+
+	/**
+	 * Returns the HTTP last modification time the entry was written with, or 0 if unknown.
+	 */
+	public synchronized long getLastModified(String name) {
+		Entry entry = entries.get(name);
+		return entry == null ? 0 : entry.lastModified;
+	}
+
+	/**
+	 * Record that an entry turned out to be up to date, so that it does not expire
+	 * until the time to live has passed again.
+	 */
+	public synchronized void revalidate(String name) {
+		Entry entry = entries.get(name);
+
+		if( entry != null ) {
+			entry.validated = System.currentTimeMillis();
+			changed();
+		}
+	}
+
+	/**
+	 * Open an entry for reading, decompressing it while it is read, and mark it as used.
+	 *
+	 * @return null if there is no such entry
+	 * @throws IOException if the entry can not be opened or its compressed data is broken
+	 */
+	public synchronized InputStream openEntry(String name) throws IOException {
+		File file = lookup(name);
+
+		if( file == null ) {
+			return null;
+		}
+
+		// the file stays readable even if the entry is replaced or evicted while it is read
+		return entries.get(name).compression.decompress(new BufferedInputStream(new FileInputStream(file)));
+	}
+
+	/**
+	 * Create a temporary file to write an entry to, to be passed to commit() or abort().
+	 */
+	public File createTemporaryFile(String name) throws IOException {
+		return File.createTempFile(name + ".", PART_SUFFIX, directory);
+	}
+
+	/**
+	 * Replace the entry with a completely written temporary file, and evict least
+	 * recently used entries beyond the budget.
+	 *
+	 * @return false if the file could not be renamed; it is deleted then
+	 */
+	public boolean commit(File temporaryFile, String name, String source) {
+		return commit(temporaryFile, name, source, Compression.NONE, -1);
+	}
+
+	/**
+	 * Replace the entry with a completely written temporary file holding data compressed
+	 * with the given compression, and evict least recently used entries beyond the budget.
+	 *
+	 * @param rawSize size of the uncompressed data, or -1 if it is unknown
+	 * @return false if the file could not be renamed; it is deleted then
+	 */
+	public boolean commit(File temporaryFile, String name, String source, Compression compression, long rawSize) {
+		return commit(temporaryFile, name, source, compression, rawSize, null, 0);
+	}
+
+	/**
+	 * Replace the entry with a completely written temporary file, also recording the HTTP
+	 * validators (ETag and Last-Modified) of the response it was read from, if any.
+	 *
+	 * @param etag entity tag of the response, or null
+	 * @param lastModified last modification time of the response, or 0 if unknown
+	 * @return false if the file could not be renamed; it is deleted then
+	 */
+	public synchronized boolean commit(File temporaryFile, String name, String source, Compression compression,
+	                                   long rawSize, String etag, long lastModified) {
+		File file = new File(directory, name);
+
+		remove(name);
+
+		if( !temporaryFile.renameTo(file) ) {
+			System.err.println("can not write cache file " + file);
+			temporaryFile.delete();
+			changed();
+			return false;
+		}
+
+		Entry entry = new Entry(file.length(), System.currentTimeMillis(), source, compression, rawSize);
+		entry.validated = entry.lastAccess;
+		entry.etag = sanitize(etag);
+		entry.lastModified = lastModified;
+		add(name, entry);
+
+		evict(name);
+		changed();
+
+		return true;
+	}
+
+	/**
+	 * Discard a temporary file whose entry could not be written.
+	 */
+	public void abort(File temporaryFile) {
+		if( temporaryFile != null ) {
+			temporaryFile.delete();
+		}
+	}
+
+	/**
+	 * Delete an entry, for example when it turns out to be broken.
+	 */
+	public synchronized void invalidate(String name) {
+		if( remove(name) ) {
+			changed();
+		}
+	}
+
+	/**
+	 * Write changes not written yet to the manifest.
+	 */
+	public synchronized void flush() {
+		if( dirty ) {
+			saveManifest();
+		}
+	}
+
+	/*
+	 * Record a change of the entries, to be written to the manifest shortly.
+	 */
+	private void changed() {
+		dirty = true;
+
+		if( saveScheduled ) {
+			return;
+		}
+
+		saveScheduled = true;
+
+		MANIFEST_WRITER.schedule(new Runnable() {
+
+			public void run() {
+				synchronized (CacheManager.this) {
+					saveScheduled = false;
+					flush();
+				}
+			}
+		}, MANIFEST_SAVE_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	private boolean remove(String name) {
+		Entry entry = entries.remove(name);
+
+		new File(directory, name).delete();
+
+		if( entry == null ) {
+			return false;
+		}
+
+		totalSize -= entry.size;
+		totalRawSize -= entry.rawSize;
+		return true;
+	}
+
+	private void add(String name, Entry entry) {
+		entries.put(name, entry);
+		totalSize += entry.size;
+		totalRawSize += entry.rawSize;
+	}
+
+	/*
+	 * Delete least recently used entries until the total size fits the budget. The
+	 * entry just written is kept even if it exceeds the budget alone.
+	 */
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+
+		while( totalSize > budget && it.hasNext() ) {
+			Map.Entry<String, Entry> eldest = it.next();
+
+			if( eldest.getKey().equals(keep) ) {
+				continue;
+			}
+
+			it.remove();
+			totalSize -= eldest.getValue().size;
+			totalRawSize -= eldest.getValue().rawSize;
+			new File(directory, eldest.getKey()).delete();
+		}
+	}
+
+	private void loadManifest() {
+		File manifest = new File(directory, MANIFEST_FILE_NAME);
+		List<String[]> records = new ArrayList<String[]>();
+
+		if( manifest.isFile() ) {
+			BufferedReader reader = null;
+
+			try {
+				reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), CHARSET));
+
+				String line;
+				while( (line = reader.readLine()) != null ) {
+					String[] fields = line.split(SEPARATOR, 9);
+
+					// older manifests have no compression and uncompressed size, or no validation
+					if( fields.length == 4 ) {
+						fields = new String[] {fields[0], fields[1], fields[2], Compression.NONE.name(), "-1",
+						                       "-1", "0", "", fields[3]};
+					} else if( fields.length == 6 ) {
+						fields = new String[] {fields[0], fields[1], fields[2], fields[3], fields[4],
+						                       "-1", "0", "", fields[5]};
+					}
+
+					if( fields.length == 9 ) {
+						records.add(fields);
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				close(reader);
+			}
+		}
+
+		// the manifest is written in order of access
+		for( String[] fields : records ) {
+			File file = new File(directory, fields[0]);
+
+			if( !file.isFile() ) {
+				continue;
+			}
+
+			long lastAccess;
+			try {
+				lastAccess = Long.parseLong(fields[2]);
+			} catch (NumberFormatException e) {
+				lastAccess = file.lastModified();
+			}
+
+			Entry entry;
+			try {
+				entry = new Entry(file.length(), lastAccess, fields[8], Compression.parse(fields[3]),
+				                  Long.parseLong(fields[4]));
+				entry.validated = Long.parseLong(fields[5]);
+				entry.lastModified = Long.parseLong(fields[6]);
+			} catch (IllegalArgumentException e) {
+				// an entry which can not be read any more is deleted below
+				continue;
+			}
+
+			// entries of older manifests count as validated when they were written
+			if( entry.validated < 0 ) {
+				entry.validated = file.lastModified();
+			}
+
+			entry.etag = sanitize(fields[7]);
+
+			add(fields[0], entry);
+		}
+
+		// delete files left by interrupted writes and entries missing from the manifest,
+		// unless another process may be writing them
+		File[] files = lock != null ? directory.listFiles() : null;
+
+		if( files != null ) {
+			for( File file : files ) {
+				String name = file.getName();
+
+				if( !file.isFile() || entries.containsKey(name) ) {
+					continue;
+				}
+
+				if( name.endsWith(PART_SUFFIX) || ENTRY_NAME.matcher(name).matches() ) {
+					file.delete();
+				}
+			}
+		}
+
+		evict(null);
+		saveManifest();
+	}
+
+	private void saveManifest() {
+		File manifest = new File(directory, MANIFEST_FILE_NAME);
+		File temporary = new File(directory, MANIFEST_FILE_NAME + PART_SUFFIX);
+
+		BufferedWriter writer = null;
+		boolean written = false;
+
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), CHARSET));
+
+			for( Map.Entry<String, Entry> e : entries.entrySet() ) {
+				Entry entry = e.getValue();
+
+				writer.write(e.getKey() + SEPARATOR + entry.size + SEPARATOR + entry.lastAccess + SEPARATOR
+				             + entry.compression.name().toLowerCase(Locale.ENGLISH) + SEPARATOR + entry.rawSize
+				             + SEPARATOR + entry.validated + SEPARATOR + entry.lastModified
+				             + SEPARATOR + (entry.etag == null ? "" : entry.etag) + SEPARATOR + entry.source);
+				writer.newLine();
+			}
+
+			writer.close();
+			writer = null;
+			written = true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			close(writer);
+		}
+
+		if( written ) {
+			// renaming replaces the old manifest atomically where the platform allows
+			if( !temporary.renameTo(manifest) && !(manifest.delete() && temporary.renameTo(manifest)) ) {
+				System.err.println("can not write cache manifest " + manifest);
+				temporary.delete();
+			}
+		} else {
+			temporary.delete();
+		}
+
+		dirty = false;
+	}
+
+	/*
+	 * Lock a cache directory, creating it if needed. Returns null if it is locked by
+	 * another process (or another manager) or can not be locked.
+	 */
+	private static FileLock tryLock(File directory) {
+		if( !directory.isDirectory() && !directory.mkdirs() ) {
+			System.err.println("can not create cache directory " + directory);
+			return null;
+		}
+
+		RandomAccessFile file = null;
+
+		try {
+			file = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw");
+			FileLock lock = file.getChannel().tryLock();
+
+			if( lock != null ) {
+				return lock;
+			}
+		} catch (OverlappingFileLockException e) {
+			// locked by another manager of this process
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		close(file);
+		return null;
+	}
+
+	/*
+	 * Returns null for empty strings; separators can not be written to the manifest.
+	 */
+	private static String sanitize(String s) {
+		if( s == null || s.length() == 0 ) {
+			return null;
+		}
+
+		return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	private static void close(Closeable c) {
+		if( c == null ) {
+			return;
+		}
+
+		try {
+			c.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static class Entry {
+
+		final long size;
+		long lastAccess;
+		final String source;
+		final Compression compression;
+		// size of the uncompressed data, the size if unknown; the compression ratio is rawSize / size
+		final long rawSize;
+
+		// time the entry was written or last found to be up to date
+		long validated;
+		String etag = null;
+		long lastModified = 0;
+
+		Entry(long size, long lastAccess, String source, Compression compression, long rawSize) {
+			this.size = size;
+			this.lastAccess = lastAccess;
+			this.source = source == null ? "" : source.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+			this.compression = compression;
+			this.rawSize = rawSize < 0 ? size : rawSize;
+		}
+	}
+}
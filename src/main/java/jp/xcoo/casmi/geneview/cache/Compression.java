@@ -0,0 +1,112 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * compression of cache entries
+ *
+ * Entries are compressed while they are written and decompressed while they are read,
+ * so neither side holds the uncompressed data in memory.
+ */
+public enum Compression {
+	NONE, GZIP, DEFLATE;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Returns the compression of a name such as "gzip", case insensitive.
+	 *
+	 * @throws IllegalArgumentException if there is no such compression
+	 */
+	public static Compression parse(String name) {
+		return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+	}
+
+	/**
+	 * Wrap a stream so that bytes written to the result are compressed into out.
+	 * Closing the result finishes the compressed data and closes out.
+	 */
+	public OutputStream compress(OutputStream out) throws IOException {
+		try {
+			switch( this ) {
+			case GZIP:
+				return new GZIPOutputStream(out, BUFFER_SIZE);
+			case DEFLATE:
+				return new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION), BUFFER_SIZE) {
+
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							def.end();
+						}
+					}
+				};
+			default:
+				return out;
+			}
+		} catch (IOException e) {
+			// the gzip header could not be written
+			out.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Wrap a stream of data compressed with this compression so that reading the result decompresses it.
+	 */
+	public InputStream decompress(InputStream in) throws IOException {
+		try {
+			switch( this ) {
+			case GZIP:
+				return new GZIPInputStream(in, BUFFER_SIZE);
+			case DEFLATE:
+				return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE) {
+
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							inf.end();
+						}
+					}
+				};
+			default:
+				return in;
+			}
+		} catch (IOException e) {
+			// the gzip header is broken
+			in.close();
+			throw e;
+		}
+	}
+}
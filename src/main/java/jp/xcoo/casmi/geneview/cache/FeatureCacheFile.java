@@ -0,0 +1,311 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+import jp.xcoo.casmi.geneview.data.type.GeneOrientaion;
+import jp.xcoo.casmi.geneview.data.type.GeneType;
+import jp.xcoo.casmi.geneview.parse.FeatureHandler;
+
+/**
+ * binary feature cache file
+ *
+ * Features are stored column-wise after a small header and a string dictionary:
+ * <pre>
+ * int     magic, version, number of strings, number of features
+ * int     view scale chr (string index), start, stop
+ * string  dictionary entries (int byte length, UTF-8 bytes; length -1 for null)
+ * int[n]  start, end, chr, id, ref, group (string indices for the last four)
+ * byte[n] orientation, type
+ * </pre>
+ * An uncompressed file is read through a memory-mapped FileChannel; a file written with
+ * a Compression is decompressed into memory first, as the columns are read side by side.
+ * Counts, lengths and indices are checked against the size of the data, so that a
+ * truncated or corrupt file fails with an IOException before any feature is passed on.
+ */
+public class FeatureCacheFile {
+
+	public static final String FILE_EXTENSION = ".gvc";
+
+	private static final int MAGIC = 0x47564643; // "GVFC"
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 28;
+	// four int columns of string indices, start and end, orientation and type
+	private static final int FEATURE_SIZE = 6 * 4 + 2;
+
+	private static final String CHARSET = "UTF-8";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final GeneOrientaion[] ORIENTATIONS = GeneOrientaion.values();
+	private static final GeneType[] TYPES = GeneType.values();
+
+	private FeatureCacheFile() {
+	}
+
+	/**
+	 * Write features to a cache file. Callers write to a temporary file and rename it
+	 * (see CacheManager) so that readers never see a partial file.
+	 */
+	public static void write(File file, ViewScale viewScale, List<Exon> exons) throws IOException {
+		write(file, viewScale, exons, Compression.NONE);
+	}
+
+	/**
+	 * Write features to a cache file compressed with a compression.
+	 *
+	 * @return size of the uncompressed data
+	 */
+	public static long write(File file, ViewScale viewScale, List<Exon> exons, Compression compression)
+		throws IOException {
+		final int n = exons.size();
+
+		List<String> strings = new ArrayList<String>();
+		Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+		int[] chrs = new int[n], ids = new int[n], refs = new int[n], groups = new int[n];
+
+		for( int i = 0; i < n; i++ ) {
+			Exon e = exons.get(i);
+			chrs[i] = lookup(e.getChr(), strings, dictionary);
+			ids[i] = lookup(e.getID(), strings, dictionary);
+			refs[i] = lookup(e.getRef(), strings, dictionary);
+			groups[i] = lookup(e.getGroup(), strings, dictionary);
+		}
+
+		int scaleChr = lookup(viewScale.getChr(), strings, dictionary);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			compression.compress(new FileOutputStream(file))));
+
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(strings.size());
+			out.writeInt(n);
+
+			out.writeInt(scaleChr);
+			out.writeInt(viewScale.getStart());
+			out.writeInt(viewScale.getStop());
+
+			for( String s : strings ) {
+				if( s == null ) {
+					out.writeInt(-1);
+				} else {
+					byte[] bytes = s.getBytes(CHARSET);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+			}
+
+			for( Exon e : exons ) {
+				out.writeInt(e.getStart());
+			}
+
+			for( Exon e : exons ) {
+				out.writeInt(e.getEnd());
+			}
+
+			writeInts(out, chrs);
+			writeInts(out, ids);
+			writeInts(out, refs);
+			writeInts(out, groups);
+
+			for( Exon e : exons ) {
+				out.writeByte(e.getOrientation().ordinal());
+			}
+
+			for( Exon e : exons ) {
+				out.writeByte(e.getType().ordinal());
+			}
+		} finally {
+			out.close();
+		}
+
+		return out.size();
+	}
+
+	/**
+	 * Read a cache file, passing its segment and features to the handler.
+	 *
+	 * @throws IOException also if the file is truncated or corrupt
+	 */
+	public static void read(File file, FeatureHandler handler) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			read(buffer, handler);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Read cache data from a stream, such as a decompressing stream of a compressed file,
+	 * passing its segment and features to the handler. The stream is closed.
+	 *
+	 * @throws IOException also if the data is truncated or corrupt
+	 */
+	public static void read(InputStream in, FeatureHandler handler) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try {
+			byte[] buf = new byte[BUFFER_SIZE];
+			int length;
+
+			while( (length = in.read(buf)) >= 0 ) {
+				bytes.write(buf, 0, length);
+			}
+		} finally {
+			in.close();
+		}
+
+		read(ByteBuffer.wrap(bytes.toByteArray()), handler);
+	}
+
+	private static void read(ByteBuffer buffer, FeatureHandler handler) throws IOException {
+		if( buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC ) {
+			throw new IOException("not a feature cache file");
+		}
+
+		if( buffer.getInt() != VERSION ) {
+			throw new IOException("unsupported feature cache version");
+		}
+
+		final int numStrings = buffer.getInt();
+		final int n = buffer.getInt();
+
+		final int scaleChr = buffer.getInt();
+		final int scaleStart = buffer.getInt();
+		final int scaleStop = buffer.getInt();
+
+		// each string takes at least its length
+		if( numStrings < 0 || n < 0 || numStrings > buffer.remaining() / 4 ) {
+			throw new IOException("corrupt feature cache header");
+		}
+
+		String[] strings = new String[numStrings];
+
+		for( int i = 0; i < numStrings; i++ ) {
+			if( buffer.remaining() < 4 ) {
+				throw new IOException("truncated feature cache string pool");
+			}
+
+			int length = buffer.getInt();
+
+			if( length < -1 || length > buffer.remaining() ) {
+				throw new IOException("corrupt feature cache string pool");
+			}
+
+			if( length >= 0 ) {
+				byte[] bytes = new byte[length];
+				buffer.get(bytes);
+				strings[i] = new String(bytes, CHARSET);
+			}
+		}
+
+		if( (long)n * FEATURE_SIZE > buffer.remaining() ) {
+			throw new IOException("truncated feature cache columns");
+		}
+
+		checkIndex(scaleChr, numStrings);
+
+		IntBuffer starts = intColumn(buffer, n);
+		IntBuffer ends = intColumn(buffer, n);
+		IntBuffer chrs = intColumn(buffer, n);
+		IntBuffer ids = intColumn(buffer, n);
+		IntBuffer refs = intColumn(buffer, n);
+		IntBuffer groups = intColumn(buffer, n);
+
+		final int orientationOffset = buffer.position();
+		final int typeOffset = orientationOffset + n;
+
+		for( int i = 0; i < n; i++ ) {
+			checkIndex(chrs.get(i), numStrings);
+			checkIndex(ids.get(i), numStrings);
+			checkIndex(refs.get(i), numStrings);
+			checkIndex(groups.get(i), numStrings);
+			checkIndex(buffer.get(orientationOffset + i), ORIENTATIONS.length);
+			checkIndex(buffer.get(typeOffset + i), TYPES.length);
+		}
+
+		handler.onSegment(new ViewScale(strings[scaleChr], scaleStart, scaleStop));
+
+		for( int i = 0; i < n; i++ ) {
+			handler.onExon(new Exon(strings[ids.get(i)], strings[chrs.get(i)], starts.get(i), ends.get(i),
+			                        ORIENTATIONS[buffer.get(orientationOffset + i)], strings[refs.get(i)],
+			                        strings[groups.get(i)], TYPES[buffer.get(typeOffset + i)]));
+		}
+	}
+
+	private static void checkIndex(int index, int size) throws IOException {
+		if( index < 0 || index >= size ) {
+			throw new IOException("corrupt feature cache index " + index);
+		}
+	}
+
+	private static IntBuffer intColumn(ByteBuffer buffer, int n) {
+		IntBuffer column = buffer.slice().asIntBuffer();
+		column.limit(n);
+
+		buffer.position(buffer.position() + n * 4);
+
+		return column;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for( int v : values ) {
+			out.writeInt(v);
+		}
+	}
+
+	private static int lookup(String s, List<String> strings, Map<String, Integer> dictionary) {
+		Integer index = dictionary.get(s);
+
+		if( index == null ) {
+			index = strings.size();
+			strings.add(s);
+			dictionary.put(s, index);
+		}
+
+		return index;
+	}
+}
@@ -39,6 +39,13 @@ public class Exon {
 	private GeneType type;
 	private int order;
 
+	// type name given by the source, such as "refGene", null if not known
+	private String typeName = null;
+
+	// ids of case folded names in a SymbolTable, -1 if not assigned
+	private int chrID = -1;
+	private int groupID = -1;
+
 	public Exon(String id, String chr, int start, int end, GeneOrientaion orientation, String ref, String group, GeneType type){
 		this.id = id;
 		this.chr = chr;
@@ -59,6 +66,14 @@ public class Exon {
 		this.chr = chr;
 	}
 
+	public int getChrID() {
+		return chrID;
+	}
+
+	public void setChrID(int chrID) {
+		this.chrID = chrID;
+	}
+
 	public int getStart() {
 		return start;
 	}
@@ -111,6 +126,14 @@ public class Exon {
 		this.group = group;
 	}
 
+	public int getGroupID() {
+		return groupID;
+	}
+
+	public void setGroupID(int groupID) {
+		this.groupID = groupID;
+	}
+
 	public GeneType getType() {
 		return type;
 	}
@@ -119,6 +142,18 @@ public class Exon {
 		this.type = type;
 	}
 
+	/**
+	 * Returns the type name given by the source (such as "refGene"), or null if it is not known.
+	 */
+	public String getTypeName() {
+		return typeName;
+	}
+
+	public void setTypeName(String typeName) {
+		// an empty name is as good as none
+		this.typeName = typeName == null || typeName.length() == 0 ? null : typeName;
+	}
+
 	public int getOrder() {
 		return order;
 	}
@@ -0,0 +1,559 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.data;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import jp.xcoo.casmi.geneview.data.type.GeneOrientaion;
+import jp.xcoo.casmi.geneview.data.type.GeneType;
+
+/**
+ * features (exons) kept in primitive arrays
+ *
+ * Each feature has a stable index in order of addition, and a rank in order of start
+ * given by getSortedIndex(). Features added since the last call are sorted and merged
+ * into that order when it is next asked for, so adding features does not pay for it.
+ * Chromosome and group names are
+ * stored as ids of a SymbolTable, feature ids and references, which are mostly unique,
+ * as Strings, and orientation and type are packed in one byte. Exon objects are created
+ * only as views on demand.
+ *
+ * Chromosome and group names are also kept as case folded ids, taken from Exon when
+ * assigned there by a parser sharing the SymbolTable of the store. Features of each
+ * chromosome are indexed by interval for findOverlapping(), in sorted runs merged as
+ * they grow so that adding features costs about log(n) each.
+ *
+ * Features are only ever appended, by one thread at a time. Lists returned by
+ * asExonList() keep showing the features present when they were created, but the
+ * order (lane) of a feature is assigned by the layout after it is added and may be
+ * changed later with setOrder(); a view reads the order current when it is created.
+ */
+public class FeatureStore {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private static final int ORIENTATION_MASK = 0x03;
+	private static final int TYPE_SHIFT = 2;
+
+	// features longer than this are checked on every interval query instead of being indexed
+	private static final int LONG_LENGTH = 100000;
+
+	private static final GeneOrientaion[] ORIENTATIONS = GeneOrientaion.values();
+	private static final GeneType[] TYPES = GeneType.values();
+
+	private final SymbolTable symbols;
+
+	private int size = 0;
+
+	private int[] starts = new int[INITIAL_CAPACITY];
+	private int[] ends = new int[INITIAL_CAPACITY];
+	private int[] orders = new int[INITIAL_CAPACITY];
+	private int[] chrs = new int[INITIAL_CAPACITY];
+	private String[] ids = new String[INITIAL_CAPACITY];
+	private String[] refs = new String[INITIAL_CAPACITY];
+	private int[] groups = new int[INITIAL_CAPACITY];
+	private int[] chrKeys = new int[INITIAL_CAPACITY];
+	private int[] groupKeys = new int[INITIAL_CAPACITY];
+	private byte[] flags = new byte[INITIAL_CAPACITY];
+
+	// indices of the first numSorted features in order of start, then index; a new array
+	// on each merge so that sorted views keep their order
+	private int[] sorted = new int[0];
+	private int numSorted = 0;
+
+	// open addressing table of (index + 1) for finding identical features
+	private int[] table = new int[INITIAL_CAPACITY * 2];
+
+	// interval indices by case folded chromosome id
+	private final Map<Integer, ChromosomeIndex> chromosomes = new HashMap<Integer, ChromosomeIndex>();
+
+	public FeatureStore(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Add a feature unless an identical one (same chr, start, end and id) is stored.
+	 *
+	 * @return index of the new feature, or -1 if it was already stored
+	 */
+	public int add(Exon e) {
+		final int chr = symbols.intern(e.getChr());
+		final String id = e.getID();
+
+		if( find(chr, e.getStart(), e.getEnd(), id) >= 0 ) {
+			return -1;
+		}
+
+		if( size == starts.length ) {
+			grow();
+		}
+
+		final int index = size;
+
+		starts[index] = e.getStart();
+		ends[index] = e.getEnd();
+		orders[index] = e.getOrder();
+		chrs[index] = chr;
+		ids[index] = id;
+		refs[index] = e.getRef();
+		groups[index] = symbols.intern(e.getGroup());
+		chrKeys[index] = e.getChrID() >= 0 ? e.getChrID() : symbols.internFolded(e.getChr());
+		groupKeys[index] = e.getGroupID() >= 0 ? e.getGroupID() : symbols.internFolded(e.getGroup());
+		flags[index] = (byte)(e.getOrientation().ordinal() | (e.getType().ordinal() << TYPE_SHIFT));
+
+		size++;
+
+		ChromosomeIndex chromosome = chromosomes.get(chrKeys[index]);
+
+		if( chromosome == null ) {
+			chromosome = new ChromosomeIndex();
+			chromosomes.put(chrKeys[index], chromosome);
+		}
+
+		chromosome.add(index);
+
+		if( size * 2 > table.length ) {
+			rehash(table.length * 2);
+		} else {
+			insert(index);
+		}
+
+		return index;
+	}
+
+	public int getStart(int index) {
+		return starts[index];
+	}
+
+	public int getEnd(int index) {
+		return ends[index];
+	}
+
+	public int getOrder(int index) {
+		return orders[index];
+	}
+
+	public void setOrder(int index, int order) {
+		orders[index] = order;
+	}
+
+	/**
+	 * Returns id of the case folded chromosome name.
+	 */
+	public int getChrID(int index) {
+		return chrKeys[index];
+	}
+
+	/**
+	 * Returns id of the case folded group name.
+	 */
+	public int getGroupID(int index) {
+		return groupKeys[index];
+	}
+
+	public String getChr(int index) {
+		return symbols.get(chrs[index]);
+	}
+
+	public String getID(int index) {
+		return ids[index];
+	}
+
+	public String getRef(int index) {
+		return refs[index];
+	}
+
+	public String getGroup(int index) {
+		return symbols.get(groups[index]);
+	}
+
+	public GeneOrientaion getOrientation(int index) {
+		return ORIENTATIONS[flags[index] & ORIENTATION_MASK];
+	}
+
+	public GeneType getType(int index) {
+		return TYPES[flags[index] >> TYPE_SHIFT];
+	}
+
+	/**
+	 * Create an Exon view of a feature. Changes to the view are not stored.
+	 */
+	public Exon getExon(int index) {
+		Exon e = new Exon(getID(index), getChr(index), starts[index], ends[index], getOrientation(index),
+		                  getRef(index), getGroup(index), getType(index));
+		e.setOrder(orders[index]);
+		e.setChrID(chrKeys[index]);
+		e.setGroupID(groupKeys[index]);
+
+		return e;
+	}
+
+	/**
+	 * Returns indices of the features on a chromosome intersecting [left, right], in no
+	 * particular order. The index is updated lazily, so like add() this must not be
+	 * called concurrently with other calls changing the store.
+	 */
+	public int[] findOverlapping(String chr, int left, int right) {
+		ChromosomeIndex chromosome = chromosomes.get(symbols.findFolded(chr));
+
+		if( chromosome == null ) {
+			return new int[0];
+		}
+
+		return chromosome.find(left, right);
+	}
+
+	/**
+	 * Returns features in order of addition as Exon views. Features ordered by position
+	 * are found through findOverlapping() or asSortedExonList().
+	 */
+	public List<Exon> asExonList() {
+		return new ExonList(size, null);
+	}
+
+	/**
+	 * Returns index of the feature at the rank in order of start (features starting at
+	 * the same position in order of index). Like add() this must not be called
+	 * concurrently with other calls changing the store.
+	 */
+	public int getSortedIndex(int rank) {
+		if( rank < 0 || rank >= size ) {
+			throw new IndexOutOfBoundsException("Rank: " + rank + ", Size: " + size);
+		}
+
+		sort();
+		return sorted[rank];
+	}
+
+	/**
+	 * Returns features in order of start as Exon views, see getSortedIndex().
+	 */
+	public List<Exon> asSortedExonList() {
+		sort();
+		return new ExonList(size, sorted);
+	}
+
+	private void grow() {
+		final int capacity = starts.length * 2;
+
+		starts = Arrays.copyOf(starts, capacity);
+		ends = Arrays.copyOf(ends, capacity);
+		orders = Arrays.copyOf(orders, capacity);
+		chrs = Arrays.copyOf(chrs, capacity);
+		ids = Arrays.copyOf(ids, capacity);
+		refs = Arrays.copyOf(refs, capacity);
+		groups = Arrays.copyOf(groups, capacity);
+		chrKeys = Arrays.copyOf(chrKeys, capacity);
+		groupKeys = Arrays.copyOf(groupKeys, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+	}
+
+	private int find(int chr, int start, int end, String id) {
+		final int mask = table.length - 1;
+
+		for( int slot = hash(chr, start, end, id) & mask; table[slot] != 0; slot = (slot + 1) & mask ) {
+			int index = table[slot] - 1;
+
+			if( starts[index] == start && ends[index] == end && chrs[index] == chr && equals(ids[index], id) ) {
+				return index;
+			}
+		}
+
+		return -1;
+	}
+
+	private void insert(int index) {
+		final int mask = table.length - 1;
+
+		int slot = hash(chrs[index], starts[index], ends[index], ids[index]) & mask;
+
+		while( table[slot] != 0 ) {
+			slot = (slot + 1) & mask;
+		}
+
+		table[slot] = index + 1;
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+
+		for( int i = 0; i < size; i++ ) {
+			insert(i);
+		}
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static int hash(int chr, int start, int end, String id) {
+		int h = chr;
+		h = h * 31 + start;
+		h = h * 31 + end;
+		h = h * 31 + (id == null ? 0 : id.hashCode());
+
+		// spread the bits, as the low bits index the table
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+
+		return h;
+	}
+
+	private int left(int index) {
+		return Math.min(starts[index], ends[index]);
+	}
+
+	private int right(int index) {
+		return Math.max(starts[index], ends[index]);
+	}
+
+	/*
+	 * Features of one chromosome: sorted runs of indices, each at most half as long as
+	 * the run before it, features added since the last query, and long features.
+	 */
+	private class ChromosomeIndex {
+
+		private final List<Run> runs = new ArrayList<Run>();
+
+		private int[] pending = new int[16];
+		private int numPending = 0;
+
+		private int[] longs = new int[0];
+		private int numLongs = 0;
+
+		void add(int index) {
+			if( right(index) - left(index) > LONG_LENGTH ) {
+				if( numLongs == longs.length ) {
+					longs = Arrays.copyOf(longs, Math.max(16, numLongs * 2));
+				}
+				longs[numLongs++] = index;
+				return;
+			}
+
+			if( numPending == pending.length ) {
+				pending = Arrays.copyOf(pending, numPending * 2);
+			}
+			pending[numPending++] = index;
+		}
+
+		int[] find(int left, int right) {
+			flush();
+
+			int[] result = new int[16];
+			int n = 0;
+
+			for( Run run : runs ) {
+				// features starting before left - maxLength can not reach the interval
+				int i = lowerBound(run.lefts, (int)Math.max(Integer.MIN_VALUE, (long)left - run.maxLength));
+
+				for( ; i < run.lefts.length && run.lefts[i] <= right; i++ ) {
+					if( right(run.indices[i]) >= left ) {
+						if( n == result.length ) {
+							result = Arrays.copyOf(result, n * 2);
+						}
+						result[n++] = run.indices[i];
+					}
+				}
+			}
+
+			for( int i = 0; i < numLongs; i++ ) {
+				int index = longs[i];
+
+				if( left(index) <= right && right(index) >= left ) {
+					if( n == result.length ) {
+						result = Arrays.copyOf(result, n * 2);
+					}
+					result[n++] = index;
+				}
+			}
+
+			return Arrays.copyOf(result, n);
+		}
+
+		/*
+		 * Sort pending features into a new run, and merge runs until each is at most
+		 * half as long as the one before it.
+		 */
+		private void flush() {
+			if( numPending == 0 ) {
+				return;
+			}
+
+			long[] keys = new long[numPending];
+			for( int i = 0; i < numPending; i++ ) {
+				keys[i] = ((long)left(pending[i]) << 32) | pending[i];
+			}
+			Arrays.sort(keys);
+
+			Run run = new Run(numPending);
+			for( int i = 0; i < numPending; i++ ) {
+				run.set(i, (int)(keys[i] & 0xffffffffL));
+			}
+
+			numPending = 0;
+
+			while( !runs.isEmpty() && runs.get(runs.size() - 1).lefts.length <= run.lefts.length * 2 ) {
+				run = merge(runs.remove(runs.size() - 1), run);
+			}
+
+			runs.add(run);
+		}
+
+		private Run merge(Run a, Run b) {
+			Run result = new Run(a.lefts.length + b.lefts.length);
+			int i = 0, j = 0, k = 0;
+
+			while( i < a.lefts.length && j < b.lefts.length ) {
+				result.set(k++, a.lefts[i] <= b.lefts[j] ? a.indices[i++] : b.indices[j++]);
+			}
+
+			while( i < a.lefts.length ) {
+				result.set(k++, a.indices[i++]);
+			}
+
+			while( j < b.lefts.length ) {
+				result.set(k++, b.indices[j++]);
+			}
+
+			return result;
+		}
+	}
+
+	private class Run {
+
+		final int[] indices;
+		final int[] lefts;
+		int maxLength = 0;
+
+		Run(int size) {
+			indices = new int[size];
+			lefts = new int[size];
+		}
+
+		void set(int i, int index) {
+			indices[i] = index;
+			lefts[i] = left(index);
+			maxLength = Math.max(maxLength, right(index) - lefts[i]);
+		}
+	}
+
+	/*
+	 * Sort the features added since the last sort and merge them into the sorted indices.
+	 */
+	private void sort() {
+		if( numSorted == size ) {
+			return;
+		}
+
+		// start in the upper half, index in the lower half
+		long[] keys = new long[size - numSorted];
+
+		for( int i = numSorted; i < size; i++ ) {
+			keys[i - numSorted] = ((long)starts[i] << 32) | i;
+		}
+
+		Arrays.sort(keys);
+
+		int[] merged = new int[size];
+		int a = 0, b = 0, k = 0;
+
+		while( a < numSorted && b < keys.length ) {
+			int added = (int)keys[b];
+
+			// indices added later are larger, so ties keep sorted features first
+			if( starts[sorted[a]] <= starts[added] ) {
+				merged[k++] = sorted[a++];
+			} else {
+				merged[k++] = added;
+				b++;
+			}
+		}
+
+		while( a < numSorted ) {
+			merged[k++] = sorted[a++];
+		}
+
+		while( b < keys.length ) {
+			merged[k++] = (int)keys[b++];
+		}
+
+		sorted = merged;
+		numSorted = size;
+	}
+
+	/*
+	 * First index whose value is not less than key.
+	 */
+	private static int lowerBound(int[] values, int key) {
+		int low = 0, high = values.length;
+
+		while( low < high ) {
+			int mid = (low + high) >>> 1;
+
+			if( values[mid] < key ) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	private class ExonList extends AbstractList<Exon> implements RandomAccess {
+
+		private final int size;
+		// indices in list order, or null for order of addition
+		private final int[] indices;
+
+		ExonList(int size, int[] indices) {
+			this.size = size;
+			this.indices = indices;
+		}
+
+		@Override
+		public Exon get(int index) {
+			if( index < 0 || index >= size ) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+
+			return getExon(indices == null ? index : indices[index]);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -39,6 +39,15 @@ public class Gene {
 	private String group;
 	private GeneType type;
 	private int order;
+	private int[] exonIndices = new int[4];
+	private int numExons = 0;
+
+	// ids of case folded names in a SymbolTable, -1 if not assigned
+	private int chrID = -1;
+	private int groupID = -1;
+
+	// hash code of the case folded names, 0 if not computed yet
+	private int hash = 0;
 
 	public Gene(String group, String chr, int start, int end, GeneOrientaion orientation, GeneType type){
 		this.chr = chr;
@@ -50,24 +59,80 @@ public class Gene {
 		this.order = 0;
 	}
 	
+	/**
+	 * Copy a gene, including indices of its exons.
+	 */
+	public Gene(Gene other) {
+		this(other.group, other.chr, other.start, other.end, other.orientation, other.type);
+		
+		this.id = other.id;
+		this.order = other.order;
+		this.chrID = other.chrID;
+		this.groupID = other.groupID;
+		this.exonIndices = other.exonIndices.clone();
+		this.numExons = other.numExons;
+	}
+	
+	/**
+	 * Genes are equal if their ids, groups and chromosomes are, names compared ignoring
+	 * case. Names are compared as ids of case folded names when both genes have them,
+	 * which must then be taken from the same SymbolTable.
+	 */
 	@Override
 	public boolean equals(Object obj){
-		if( obj instanceof Gene ) {
+		if( !(obj instanceof Gene) ) {
 			return false;
 		}
 		
 		Gene other = (Gene)obj;
 		
-		if( other.getID() == this.id && other.getGroup().equalsIgnoreCase(this.group) ){
-			return true;
-		}else{
+		if( other.id != this.id ) {
 			return false;
 		}
+		
+		if( this.chrID >= 0 && other.chrID >= 0 && this.groupID >= 0 && other.groupID >= 0 ) {
+			return other.groupID == this.groupID && other.chrID == this.chrID;
+		}
+		
+		return equalsIgnoreCase(other.group, this.group) && equalsIgnoreCase(other.chr, this.chr);
 	}
 	
+	/**
+	 * Hash of the id and the case folded names, the same whether names are compared as
+	 * ids or not.
+	 */
 	@Override
 	public int hashCode(){
-		return (this.id + ":" + this.chr + ":" + this.group).hashCode();
+		int h = hash;
+		
+		if( h == 0 ) {
+			h = 31 * (31 * this.id + foldedHash(this.group)) + foldedHash(this.chr);
+			hash = h;
+		}
+		
+		return h;
+	}
+	
+	private static boolean equalsIgnoreCase(String a, String b) {
+		return a == null ? b == null : a.equalsIgnoreCase(b);
+	}
+	
+	/*
+	 * Hash of a string folded char by char as String.equalsIgnoreCase() does, without
+	 * creating the folded string.
+	 */
+	private static int foldedHash(String s) {
+		if( s == null ) {
+			return 0;
+		}
+		
+		int h = 0;
+		
+		for( int i = 0; i < s.length(); i++ ) {
+			h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+		}
+		
+		return h;
 	}
 	
 	public int getID() {
@@ -76,6 +141,7 @@ public class Gene {
 	
 	public void setID(int id) {
 		this.id = id;
+		this.hash = 0;
 	}
 	
 	public String getChr() {
@@ -84,6 +150,15 @@ public class Gene {
 	
 	public void setChr(String chr) {
 		this.chr = chr;
+		this.hash = 0;
+	}
+	
+	public int getChrID() {
+		return chrID;
+	}
+	
+	public void setChrID(int chrID) {
+		this.chrID = chrID;
 	}
 	
 	public int getStart() {
@@ -116,6 +191,15 @@ public class Gene {
 	
 	public void setGroup(String group) {
 		this.group = group;
+		this.hash = 0;
+	}
+	
+	public int getGroupID() {
+		return groupID;
+	}
+	
+	public void setGroupID(int groupID) {
+		this.groupID = groupID;
 	}
 	
 	public GeneType getType() {
@@ -138,6 +222,27 @@ public class Gene {
 		this.order = order;
 	}
 	
+	/**
+	 * Add index of an exon (in the FeatureStore this gene was built from) belonging to this gene.
+	 */
+	public void addExonIndex(int index) {
+		if( numExons == exonIndices.length ) {
+			int[] tmp = new int[exonIndices.length * 2];
+			System.arraycopy(exonIndices, 0, tmp, 0, numExons);
+			exonIndices = tmp;
+		}
+		
+		exonIndices[numExons++] = index;
+	}
+	
+	public int getNumExons() {
+		return numExons;
+	}
+	
+	public int getExonIndex(int i) {
+		return exonIndices[i];
+	}
+	
 	public int getLeft() {
 		if( this.start < this.end ) {
 			return this.start;
@@ -0,0 +1,184 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.data;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * dictionary assigning int ids to strings
+ *
+ * The same string always gets the same id, and ids are assigned from 0 in order of
+ * appearance. null is a valid symbol. Names compared case-insensitively (chromosomes and
+ * groups) are interned in lower case with internFolded(), so that they are compared as
+ * ids afterwards.
+ *
+ * Only names shared by many features (chromosomes and groups) are meant to be interned;
+ * feature ids and references are mostly unique and would only make the table grow.
+ * Symbols are kept as Strings in an open addressing table keyed by String.hashCode().
+ *
+ * Only interning takes a lock. Symbols are appended to an array published through a
+ * volatile field, copied when it grows, so get() and size() read without locking while
+ * other threads intern.
+ */
+public class SymbolTable {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	// symbols by id, replaced by a larger copy when full; entries below size never change
+	private volatile String[] symbols = new String[INITIAL_CAPACITY];
+	private volatile int size = 0;
+
+	// open addressing table of (id + 1), replaced by a rehashed copy when half full
+	private volatile int[] table = new int[INITIAL_CAPACITY * 2];
+
+	private volatile int nullID = -1;
+
+	/**
+	 * Returns the id of a symbol, or -1 if it has not been interned. A symbol being
+	 * interned by another thread at the same time may not be found yet.
+	 */
+	public int find(String symbol) {
+		if( symbol == null ) {
+			return nullID;
+		}
+
+		final int[] t = table;
+		final int mask = t.length - 1;
+
+		for( int slot = hash(symbol) & mask; t[slot] != 0; slot = (slot + 1) & mask ) {
+			int id = t[slot] - 1;
+
+			// ids not below size may have been seen before their symbols
+			if( id < size && id != nullID && symbol.equals(symbols[id]) ) {
+				return id;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the id of the lower case form of a symbol, or -1 if it has not been interned.
+	 */
+	public int findFolded(String symbol) {
+		return find(symbol == null ? null : symbol.toLowerCase(Locale.ENGLISH));
+	}
+
+	public synchronized int intern(String symbol) {
+		if( symbol == null ) {
+			if( nullID < 0 ) {
+				nullID = append(null);
+			}
+			return nullID;
+		}
+
+		final int[] t = table;
+		final int mask = t.length - 1;
+
+		int slot = hash(symbol) & mask;
+
+		for( ; t[slot] != 0; slot = (slot + 1) & mask ) {
+			int id = t[slot] - 1;
+
+			if( id != nullID && symbol.equals(symbols[id]) ) {
+				return id;
+			}
+		}
+
+		final int id = append(symbol);
+
+		if( size * 2 > t.length ) {
+			rehash(t.length * 2);
+		} else {
+			t[slot] = id + 1;
+		}
+
+		return id;
+	}
+
+	/**
+	 * Intern the lower case form of a symbol.
+	 */
+	public int internFolded(String symbol) {
+		return intern(symbol == null ? null : symbol.toLowerCase(Locale.ENGLISH));
+	}
+
+	public String get(int id) {
+		// size is read first: the symbol of any id below it is in the array read after it
+		final int n = size;
+
+		if( id < 0 || id >= n ) {
+			throw new IndexOutOfBoundsException("Symbol: " + id + ", Size: " + n);
+		}
+
+		return symbols[id];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private int append(String symbol) {
+		String[] array = symbols;
+
+		if( size == array.length ) {
+			array = Arrays.copyOf(array, array.length * 2);
+		}
+
+		array[size] = symbol;
+
+		// publish the array before the new size
+		symbols = array;
+
+		return size++;
+	}
+
+	private void rehash(int capacity) {
+		int[] table = new int[capacity];
+
+		final int mask = capacity - 1;
+
+		for( int id = 0; id < size; id++ ) {
+			if( id == nullID ) {
+				continue;
+			}
+
+			int slot = hash(symbols[id]) & mask;
+
+			while( table[slot] != 0 ) {
+				slot = (slot + 1) & mask;
+			}
+
+			table[slot] = id + 1;
+		}
+
+		this.table = table;
+	}
+
+	private static int hash(String symbol) {
+		int h = symbol.hashCode();
+
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+
+		return h;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.layout;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.xcoo.casmi.geneview.data.FeatureStore;
+import jp.xcoo.casmi.geneview.data.Gene;
+
+/**
+ * assembles genes from exons in a single pass, grouping exons by the case folded
+ * ids of their chromosome and group
+ *
+ * A group found on several chromosomes (such as genes of the pseudoautosomal regions
+ * of X and Y) gives one gene per chromosome.
+ */
+public class GeneAssembler {
+
+	private GeneAssembler() {
+	}
+
+	/**
+	 * Build genes from the features of a store. Each gene spans all of its exons and
+	 * keeps the indices of its exons in the store.
+	 */
+	public static List<Gene> assemble(FeatureStore store) {
+		final int size = store.size();
+
+		// genes by chromosome and group id
+		Map<Long, Gene> index = new HashMap<Long, Gene>();
+		List<Gene> result = new ArrayList<Gene>();
+
+		for( int i = 0; i < size; i++ ) {
+			final int start = store.getStart(i);
+			final int end = store.getEnd(i);
+			final int chrID = store.getChrID(i);
+			final int groupID = store.getGroupID(i);
+			final Long key = key(chrID, groupID);
+
+			Gene g = index.get(key);
+
+			if( g == null ) {
+
+				// add new gene
+				g = new Gene(store.getGroup(i), store.getChr(i), start, end, store.getOrientation(i), store.getType(i));
+				g.setChrID(chrID);
+				g.setGroupID(groupID);
+				index.put(key, g);
+				result.add(g);
+
+			} else {
+
+				// update gene start and stop
+				if( g.getStart() > start ) {
+					g.setStart(start);
+				}
+
+				if( g.getEnd() < end ) {
+					g.setEnd(end);
+				}
+			}
+
+			g.addExonIndex(i);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the key of a gene: case folded chromosome and group ids packed in a long.
+	 */
+	public static Long key(int chrID, int groupID) {
+		return Long.valueOf(((long)chrID << 32) | (groupID & 0xffffffffL));
+	}
+
+	/**
+	 * Copy the order of each gene to its exons.
+	 */
+	public static void propagateOrder(List<Gene> genes, FeatureStore store) {
+		for( Gene g : genes ) {
+			final int order = g.getOrder();
+
+			for( int i = 0; i < g.getNumExons(); i++ ) {
+				store.setOrder(g.getExonIndex(i), order);
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.layout;
+
+import java.util.List;
+
+import jp.xcoo.casmi.geneview.data.Gene;
+import jp.xcoo.casmi.geneview.data.type.GeneOrientaion;
+
+/**
+ * counts genes per fixed size bin, separately for each strand
+ */
+public class GeneDensity {
+
+	public static final int PLUS_STRAND = 0;
+	public static final int MINUS_STRAND = 1;
+
+	private final int start;
+	private final int binSize;
+	private final int[][] counts;
+
+	private GeneDensity(int start, int binSize, int[][] counts) {
+		this.start = start;
+		this.binSize = binSize;
+		this.counts = counts;
+	}
+
+	/**
+	 * Count genes overlapping each of numBins bins of binSize base pairs from start.
+	 * Genes with unknown orientation are counted on the plus strand.
+	 */
+	public static GeneDensity count(List<Gene> genes, int start, int binSize, int numBins) {
+		// difference arrays, one extra slot for the end of the last bin
+		int[][] counts = new int[2][numBins + 1];
+
+		for( Gene g : genes ) {
+			int first = (g.getLeft() - start) / binSize;
+			int last = (g.getRight() - start) / binSize;
+
+			if( g.getRight() < start || first >= numBins ) {
+				continue;
+			}
+
+			first = Math.max(0, first);
+			last = Math.min(numBins - 1, last);
+
+			int strand = g.getOrientation() == GeneOrientaion.OrientationMinus ? MINUS_STRAND : PLUS_STRAND;
+
+			counts[strand][first]++;
+			counts[strand][last + 1]--;
+		}
+
+		for( int[] c : counts ) {
+			for( int i = 1; i < c.length; i++ ) {
+				c[i] += c[i - 1];
+			}
+		}
+
+		return new GeneDensity(start, binSize, counts);
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getBinSize() {
+		return binSize;
+	}
+
+	public int getNumBins() {
+		return counts[PLUS_STRAND].length - 1;
+	}
+
+	public int getCount(int strand, int bin) {
+		return counts[strand][bin];
+	}
+
+	public int getMaxCount() {
+		int max = 0;
+
+		for( int[] c : counts ) {
+			for( int i = 0; i < c.length - 1; i++ ) {
+				max = Math.max(max, c[i]);
+			}
+		}
+
+		return max;
+	}
+}
@@ -0,0 +1,381 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.layout;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+
+import jp.xcoo.casmi.geneview.data.FeatureStore;
+import jp.xcoo.casmi.geneview.data.Gene;
+import jp.xcoo.casmi.geneview.data.type.GeneOrientaion;
+import jp.xcoo.casmi.geneview.metrics.Metrics;
+
+/**
+ * assembles genes and assigns their lanes incrementally as features are added to a store
+ *
+ * Each update only visits the features added since the previous one: their exons extend
+ * or create genes (one per chromosome and group), and only new genes and genes whose span grew are placed. A gene which
+ * grew keeps its lane unless it now overlaps a neighbour, and other genes never move,
+ * so genes already drawn stay where they are.
+ *
+ * Lanes are kept per chromosome and orientation as maps from the left of a gene to the
+ * gene, so whether a gene fits in a lane is a single lookup. Genes are placed in the lowest
+ * lane they fit in, in order of their left; for the first update of a store this is the
+ * same packing as LaneLayout, apart from genes of different chromosomes never sharing a lane.
+ *
+ * Gene lists returned never change afterwards: a gene handed out before is copied before
+ * it is modified. Genes are kept in chunks of CHUNK_SIZE, and only the chunks holding
+ * modified genes are copied, so an update costs about the number of features and genes
+ * it touches. Not thread safe; updates are synchronized by the caller.
+ */
+public class IncrementalLayout {
+
+	private static final Comparator<Gene> LEFT_COMPARATOR = new Comparator<Gene>() {
+
+		public int compare(Gene g1, Gene g2) {
+			if( g1.getLeft() != g2.getLeft() ) {
+				return g1.getLeft() < g2.getLeft() ? -1 : 1;
+			}
+
+			if( g1.getRight() != g2.getRight() ) {
+				return g1.getRight() < g2.getRight() ? -1 : 1;
+			}
+
+			return 0;
+		}
+	};
+
+	private static final int CHUNK_SHIFT = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final FeatureStore store;
+
+	// number of features of the store assembled so far
+	private int numAssembled = 0;
+
+	// genes in order of their first exon, in chunks; slots handed out in a list are never
+	// written again, so chunks (and the array of chunks) are copied before that
+	private Gene[][] chunks = new Gene[16][];
+	private int numGenes = 0;
+	private boolean chunksCopied = false;
+
+	// by chunk: the update the chunk was created or copied in
+	private int[] chunkOwned = new int[16];
+
+	// positions in genes by chromosome and group id (see GeneAssembler.key)
+	private final Map<Long, Integer> positions = new HashMap<Long, Integer>();
+
+	// by position: the update the gene was created or copied in, and the update it was
+	// queued for placement in
+	private int[] owned = new int[16];
+	private int[] queued = new int[16];
+
+	private int numUpdates = 0;
+
+	// lanes by chromosome and orientation
+	private final Map<Long, List<TreeMap<Integer, Gene>>> lanes = new HashMap<Long, List<TreeMap<Integer, Gene>>>();
+
+	private List<Gene> result = Collections.emptyList();
+
+	public IncrementalLayout(FeatureStore store) {
+		this.store = store;
+	}
+
+	public FeatureStore getFeatureStore() {
+		return store;
+	}
+
+	/**
+	 * Returns genes as of the last update.
+	 */
+	public List<Gene> getGenes() {
+		return result;
+	}
+
+	/**
+	 * Assemble features added to the store since the last update and place the genes
+	 * they created or extended. Orders of the genes are copied to their exons.
+	 *
+	 * @return all genes of the store, in order of their first exon
+	 */
+	public List<Gene> update() {
+		final int size = store.size();
+
+		if( size == numAssembled ) {
+			return result;
+		}
+
+		numUpdates++;
+		chunksCopied = false;
+
+		List<Gene> placing = new ArrayList<Gene>();
+
+		for( int i = numAssembled; i < size; i++ ) {
+			final int start = store.getStart(i);
+			final int end = store.getEnd(i);
+			final Long key = GeneAssembler.key(store.getChrID(i), store.getGroupID(i));
+
+			Integer position = positions.get(key);
+			Gene g;
+
+			if( position == null ) {
+
+				// add new gene
+				g = new Gene(store.getGroup(i), store.getChr(i), start, end, store.getOrientation(i), store.getType(i));
+				g.setChrID(store.getChrID(i));
+				g.setGroupID(store.getGroupID(i));
+
+				positions.put(key, numGenes);
+				append(g);
+
+				placing.add(g);
+
+			} else {
+				g = get(position);
+
+				if( owned[position] != numUpdates ) {
+					g = copy(position);
+				}
+
+				if( g.getStart() > start || g.getEnd() < end ) {
+
+					// take the gene out of its lane before its left changes
+					if( queued[position] != numUpdates ) {
+						queued[position] = numUpdates;
+						remove(g);
+						placing.add(g);
+					}
+
+					// update gene start and stop
+					if( g.getStart() > start ) {
+						g.setStart(start);
+					}
+
+					if( g.getEnd() < end ) {
+						g.setEnd(end);
+					}
+				}
+			}
+
+			g.addExonIndex(i);
+		}
+
+		long layoutStartTime = System.nanoTime();
+
+		Collections.sort(placing, LEFT_COMPARATOR);
+
+		for( Gene g : placing ) {
+			place(g);
+
+			// setup order of exons
+			final int order = g.getOrder();
+
+			for( int i = 0; i < g.getNumExons(); i++ ) {
+				store.setOrder(g.getExonIndex(i), order);
+			}
+		}
+
+		Metrics.LAYOUT_TIME.updateSince(layoutStartTime);
+
+		// new exons of genes which stayed in place
+		for( int i = numAssembled; i < size; i++ ) {
+			final int position = positions.get(GeneAssembler.key(store.getChrID(i), store.getGroupID(i)));
+
+			if( queued[position] != numUpdates ) {
+				store.setOrder(i, get(position).getOrder());
+			}
+		}
+
+		numAssembled = size;
+		result = new GeneList(chunks, numGenes);
+
+		return result;
+	}
+
+	/*
+	 * Put a gene in the lane it was in if it still fits there, otherwise in the lowest lane it fits in.
+	 */
+	private void place(Gene g) {
+		List<TreeMap<Integer, Gene>> strand = lanesOf(g);
+
+		if( strand == null ) {
+			g.setOrder(0);
+			return;
+		}
+
+		int lane = Math.abs(g.getOrder()) - 1;
+
+		if( lane < 0 || !fits(strand.get(lane), g) ) {
+			lane = 0;
+
+			while( lane < strand.size() && !fits(strand.get(lane), g) ) {
+				lane++;
+			}
+
+			if( lane == strand.size() ) {
+				strand.add(new TreeMap<Integer, Gene>());
+			}
+		}
+
+		strand.get(lane).put(g.getLeft(), g);
+		g.setOrder(LaneLayout.toOrder(lane, g.getOrientation()));
+	}
+
+	/*
+	 * Genes in a lane never overlap, so only the last gene starting before the right of g
+	 * can overlap it. Touching genes overlap.
+	 */
+	private static boolean fits(TreeMap<Integer, Gene> lane, Gene g) {
+		Map.Entry<Integer, Gene> e = lane.floorEntry(g.getRight());
+
+		return e == null || e.getValue().getRight() < g.getLeft();
+	}
+
+	private void remove(Gene g) {
+		List<TreeMap<Integer, Gene>> strand = lanesOf(g);
+
+		if( strand != null && g.getOrder() != 0 ) {
+			strand.get(Math.abs(g.getOrder()) - 1).remove(g.getLeft());
+		}
+	}
+
+	/*
+	 * Lanes of the chromosome and orientation of a gene, null for genes of unknown orientation.
+	 */
+	private List<TreeMap<Integer, Gene>> lanesOf(Gene g) {
+		final long key;
+
+		switch( g.getOrientation() ) {
+		case OrientationPlus:
+			key = (long)g.getChrID() << 1;
+			break;
+		case OrientationMinus:
+			key = ((long)g.getChrID() << 1) | 1;
+			break;
+		default:
+			return null;
+		}
+
+		List<TreeMap<Integer, Gene>> strand = lanes.get(key);
+
+		if( strand == null ) {
+			strand = new ArrayList<TreeMap<Integer, Gene>>();
+			lanes.put(key, strand);
+		}
+
+		return strand;
+	}
+
+	/*
+	 * Replace a gene handed out in a previous update by a copy which can be modified.
+	 */
+	private Gene copy(int position) {
+		Gene g = new Gene(get(position));
+
+		final int chunk = position >> CHUNK_SHIFT;
+
+		if( chunkOwned[chunk] != numUpdates ) {
+			if( !chunksCopied ) {
+				chunks = chunks.clone();
+				chunksCopied = true;
+			}
+
+			chunks[chunk] = chunks[chunk].clone();
+			chunkOwned[chunk] = numUpdates;
+		}
+
+		chunks[chunk][position & CHUNK_MASK] = g;
+		owned[position] = numUpdates;
+
+		if( g.getOrientation() != GeneOrientaion.OrientationUnknown && g.getOrder() != 0 ) {
+			lanesOf(g).get(Math.abs(g.getOrder()) - 1).put(g.getLeft(), g);
+		}
+
+		return g;
+	}
+
+	private Gene get(int position) {
+		return chunks[position >> CHUNK_SHIFT][position & CHUNK_MASK];
+	}
+
+	/*
+	 * Slots after the last gene are not part of any list handed out, so they are written
+	 * in place.
+	 */
+	private void append(Gene g) {
+		if( numGenes == owned.length ) {
+			owned = Arrays.copyOf(owned, owned.length * 2);
+			queued = Arrays.copyOf(queued, owned.length);
+		}
+
+		final int chunk = numGenes >> CHUNK_SHIFT;
+
+		if( (numGenes & CHUNK_MASK) == 0 ) {
+			if( chunk == chunks.length ) {
+				chunks = Arrays.copyOf(chunks, chunks.length * 2);
+				chunkOwned = Arrays.copyOf(chunkOwned, chunks.length);
+			}
+
+			chunks[chunk] = new Gene[CHUNK_SIZE];
+			chunkOwned[chunk] = numUpdates;
+		}
+
+		owned[numGenes] = numUpdates;
+		queued[numGenes] = numUpdates;
+		chunks[chunk][numGenes & CHUNK_MASK] = g;
+		numGenes++;
+	}
+
+	/*
+	 * Read only view of the first size genes of an array of chunks.
+	 */
+	private static class GeneList extends AbstractList<Gene> implements RandomAccess {
+
+		private final Gene[][] chunks;
+		private final int size;
+
+		GeneList(Gene[][] chunks, int size) {
+			this.chunks = chunks;
+			this.size = size;
+		}
+
+		@Override
+		public Gene get(int index) {
+			if( index < 0 || index >= size ) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+
+			return chunks[index >> CHUNK_SHIFT][index & CHUNK_MASK];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.layout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import jp.xcoo.casmi.geneview.data.Gene;
+import jp.xcoo.casmi.geneview.data.type.GeneOrientaion;
+
+/**
+ * packs genes into non-overlapping lanes per orientation with a sweep line
+ *
+ * Genes on the plus strand get orders 1, 2, 3, ... and genes on the minus strand
+ * get orders -1, -2, -3, ... Genes with unknown orientation stay on order 0.
+ */
+public class LaneLayout {
+
+	private static final Comparator<Gene> LEFT_COMPARATOR = new Comparator<Gene>() {
+
+		public int compare(Gene g1, Gene g2) {
+			if( g1.getLeft() != g2.getLeft() ) {
+				return g1.getLeft() < g2.getLeft() ? -1 : 1;
+			}
+
+			if( g1.getRight() != g2.getRight() ) {
+				return g1.getRight() < g2.getRight() ? -1 : 1;
+			}
+
+			return 0;
+		}
+	};
+
+	private LaneLayout() {
+	}
+
+	/**
+	 * Assign orders to genes so that overlapping genes of the same orientation never
+	 * share a lane, using the minimal number of lanes.
+	 */
+	public static void layout(List<Gene> genes) {
+		List<Gene> plus = new ArrayList<Gene>();
+		List<Gene> minus = new ArrayList<Gene>();
+
+		for( Gene g : genes ) {
+			switch( g.getOrientation() ) {
+			case OrientationPlus:
+				plus.add(g);
+				break;
+			case OrientationMinus:
+				minus.add(g);
+				break;
+			case OrientationUnknown:
+				g.setOrder(0);
+				break;
+			}
+		}
+
+		pack(plus, GeneOrientaion.OrientationPlus);
+		pack(minus, GeneOrientaion.OrientationMinus);
+	}
+
+	/**
+	 * Convert a zero based lane to a gene order for the given orientation.
+	 */
+	public static int toOrder(int lane, GeneOrientaion orientation) {
+		switch( orientation ) {
+		case OrientationPlus:
+			return lane + 1;
+		case OrientationMinus:
+			return -(lane + 1);
+		default:
+			return 0;
+		}
+	}
+
+	private static void pack(List<Gene> strand, GeneOrientaion orientation) {
+		Collections.sort(strand, LEFT_COMPARATOR);
+
+		// busy lanes packed as (right << 32 | lane) so that the lane ending first is on top
+		PriorityQueue<Long> busy = new PriorityQueue<Long>();
+		PriorityQueue<Integer> free = new PriorityQueue<Integer>();
+		int numLanes = 0;
+
+		for( Gene g : strand ) {
+			final int left = g.getLeft();
+
+			// release lanes whose last gene ends before this gene (touching genes overlap)
+			while( !busy.isEmpty() && (int)(busy.peek() >>> 32) < left ) {
+				free.add((int)(busy.poll() & 0xffffffffL));
+			}
+
+			int lane = free.isEmpty() ? numLanes++ : free.poll();
+
+			busy.add(((long)g.getRight() << 32) | lane);
+
+			g.setOrder(toOrder(lane, orientation));
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.metrics;
+
+/**
+ * last value of a quantity, such as the number of loaded features
+ */
+public class Gauge implements GaugeMBean {
+
+	private volatile long value = 0;
+
+	public void set(long value) {
+		this.value = value;
+	}
+
+	public long getValue() {
+		return value;
+	}
+}
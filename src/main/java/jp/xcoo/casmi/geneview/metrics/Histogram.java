@@ -0,0 +1,142 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * distribution of non-negative values, such as times in microseconds
+ *
+ * Values are counted in buckets of powers of two, so recording never allocates or
+ * locks and percentiles are accurate within a factor of two (reported as the upper
+ * bound of their bucket, at most the maximum).
+ */
+public class Histogram implements HistogramMBean {
+
+	public static final String MICROSECONDS = "us";
+
+	// bucket i > 0 holds values in [2^(i-1), 2^i - 1], bucket 0 holds 0
+	private static final int NUM_BUCKETS = 64;
+
+	private final String unit;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	public Histogram(String unit) {
+		this.unit = unit;
+	}
+
+	public void update(long value) {
+		if( value < 0 ) {
+			value = 0;
+		}
+
+		buckets.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long m;
+		while( value < (m = min.get()) && !min.compareAndSet(m, value) ) {
+		}
+		while( value > (m = max.get()) && !max.compareAndSet(m, value) ) {
+		}
+	}
+
+	/**
+	 * Record microseconds elapsed since startNanos, a value of System.nanoTime().
+	 */
+	public void updateSince(long startNanos) {
+		update((System.nanoTime() - startNanos) / 1000);
+	}
+
+	public String getUnit() {
+		return unit;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMin() {
+		return count.get() == 0 ? 0 : min.get();
+	}
+
+	public long getMax() {
+		return count.get() == 0 ? 0 : max.get();
+	}
+
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0.0 : (double)sum.get() / n;
+	}
+
+	public long get50thPercentile() {
+		return getPercentile(0.50);
+	}
+
+	public long get95thPercentile() {
+		return getPercentile(0.95);
+	}
+
+	public long get99thPercentile() {
+		return getPercentile(0.99);
+	}
+
+	public long getPercentile(double quantile) {
+		long n = count.get();
+
+		if( n == 0 ) {
+			return 0;
+		}
+
+		long rank = (long)Math.ceil(quantile * n);
+		long seen = 0;
+
+		for( int i = 0; i < NUM_BUCKETS; i++ ) {
+			seen += buckets.get(i);
+
+			if( seen >= rank ) {
+				long upper = i == 0 ? 0 : (1L << i) - 1;
+				return Math.min(upper, getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	public void reset() {
+		for( int i = 0; i < NUM_BUCKETS; i++ ) {
+			buckets.set(i, 0);
+		}
+
+		count.set(0);
+		sum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(Long.MIN_VALUE);
+	}
+
+	private static int bucket(long value) {
+		return Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.metrics;
+
+/**
+ * management interface of a Histogram
+ */
+public interface HistogramMBean {
+
+	String getUnit();
+
+	long getCount();
+
+	long getMin();
+
+	long getMax();
+
+	double getMean();
+
+	long get50thPercentile();
+
+	long get95thPercentile();
+
+	long get99thPercentile();
+
+	void reset();
+}
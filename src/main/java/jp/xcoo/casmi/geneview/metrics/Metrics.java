@@ -0,0 +1,77 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.metrics;
+
+/**
+ * metrics of loading and viewing features, registered in the default MetricsRegistry
+ *
+ * Times are in microseconds.
+ */
+public class Metrics {
+
+	private static final MetricsRegistry registry = MetricsRegistry.getDefault();
+
+	// entries found and not found by CacheManager.lookup
+	public static final Counter CACHE_HITS = registry.counter("cache.hits");
+	public static final Counter CACHE_MISSES = registry.counter("cache.misses");
+
+	// response bytes read from DAS servers with the streaming parser, as transferred (compressed)
+	public static final Counter DOWNLOADED_BYTES = registry.counter("das.downloadedBytes");
+
+	// expired cache entries found up to date by a conditional request
+	public static final Counter NOT_MODIFIED = registry.counter("das.notModified");
+
+	// DAS requests, from connecting until the whole response has been read
+	public static final Histogram DOWNLOAD_TIME = registry.histogram("das.downloadTime", Histogram.MICROSECONDS);
+
+	// parsing of DAS documents; while streaming from a server, including waiting for data
+	public static final Histogram PARSE_TIME = registry.histogram("das.parseTime", Histogram.MICROSECONDS);
+
+	// features received from feature sources and caches, before duplicates are removed
+	public static final Counter FETCHED_FEATURES = registry.counter("loader.fetchedFeatures");
+
+	// features and genes of the loader after the last merge
+	public static final Gauge LOADED_FEATURES = registry.gauge("loader.features");
+	public static final Gauge LOADED_GENES = registry.gauge("loader.genes");
+
+	// building genes as a whole and its lane layout step, either from scratch or incrementally on merges
+	public static final Histogram BUILD_GENES_TIME = registry.histogram("loader.buildGenesTime", Histogram.MICROSECONDS);
+	public static final Histogram LAYOUT_TIME = registry.histogram("loader.layoutTime", Histogram.MICROSECONDS);
+
+	// GeneView.update(), the time from one update() to the next (update, drawing and waiting
+	// for the frame rate, since casmi draws the canvases itself) and gene canvas rebuilds
+	public static final Histogram UPDATE_TIME = registry.histogram("view.updateTime", Histogram.MICROSECONDS);
+	public static final Histogram FRAME_TIME = registry.histogram("view.frameTime", Histogram.MICROSECONDS);
+	public static final Histogram CANVAS_BUILD_TIME = registry.histogram("view.canvasBuildTime", Histogram.MICROSECONDS);
+
+	// elements registered with the cullers and attached to the canvases after the last update
+	public static final Gauge CANVAS_ELEMENTS = registry.gauge("view.elements");
+	public static final Gauge ATTACHED_ELEMENTS = registry.gauge("view.attachedElements");
+
+	// tile layouts of LayoutService found in memory and computed
+	public static final Counter LAYOUT_TILE_HITS = registry.counter("server.layoutTileHits");
+	public static final Counter LAYOUT_TILE_MISSES = registry.counter("server.layoutTileMisses");
+
+	// layout requests answered by LayoutServer, and those refused while all workers were busy
+	public static final Histogram LAYOUT_REQUEST_TIME = registry.histogram("server.requestTime", Histogram.MICROSECONDS);
+	public static final Counter REJECTED_REQUESTS = registry.counter("server.rejectedRequests");
+
+	private Metrics() {
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * named metrics, each registered as an MBean of the platform MBean server
+ *
+ * MBeans are named "jp.xcoo.casmi.geneview:type=TYPE,name=NAME" and can be watched
+ * with jconsole or any other JMX client. Asking for a name twice returns the same metric.
+ */
+public class MetricsRegistry {
+
+	public static final String DOMAIN = "jp.xcoo.casmi.geneview";
+
+	private static final MetricsRegistry defaultRegistry = new MetricsRegistry(ManagementFactory.getPlatformMBeanServer());
+
+	private final MBeanServer server;
+	private final Map<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 * @param server MBean server to register metrics on, or null not to register them
+	 */
+	public MetricsRegistry(MBeanServer server) {
+		this.server = server;
+	}
+
+	public static MetricsRegistry getDefault() {
+		return defaultRegistry;
+	}
+
+	public Counter counter(String name) {
+		Counter counter = (Counter)metrics.get(name);
+		return counter != null ? counter : (Counter)register(name, "Counter", new Counter());
+	}
+
+	public Gauge gauge(String name) {
+		Gauge gauge = (Gauge)metrics.get(name);
+		return gauge != null ? gauge : (Gauge)register(name, "Gauge", new Gauge());
+	}
+
+	public Histogram histogram(String name, String unit) {
+		Histogram histogram = (Histogram)metrics.get(name);
+		return histogram != null ? histogram : (Histogram)register(name, "Histogram", new Histogram(unit));
+	}
+
+	/**
+	 * Returns metrics by name.
+	 */
+	public Map<String, Object> getMetrics() {
+		return metrics;
+	}
+
+	private synchronized Object register(String name, String type, Object metric) {
+		Object registered = metrics.get(name);
+
+		if( registered != null ) {
+			return registered;
+		}
+
+		metrics.put(name, metric);
+
+		if( server != null ) {
+			try {
+				server.registerMBean(metric, new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name)));
+			} catch (JMException e) {
+				// the metric still works, it is only not visible to JMX clients
+				e.printStackTrace();
+			}
+		}
+
+		return metric;
+	}
+}
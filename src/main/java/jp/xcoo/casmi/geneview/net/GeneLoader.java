@@ -21,223 +21,665 @@ package jp.xcoo.casmi.geneview.net;
 
 import java.io.File;
 import java.io.IOException;
-import java.security.MessageDigest;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import jp.xcoo.casmi.geneview.cache.CacheManager;
+import jp.xcoo.casmi.geneview.cache.Compression;
+import jp.xcoo.casmi.geneview.cache.FeatureCacheFile;
 import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.FeatureStore;
 import jp.xcoo.casmi.geneview.data.Gene;
+import jp.xcoo.casmi.geneview.data.SymbolTable;
 import jp.xcoo.casmi.geneview.data.ViewScale;
-import jp.xcoo.casmi.geneview.parse.GeneXMLParser;
-import casmi.io.Reader;
-import casmi.io.exception.ParserException;
-import casmi.io.net.HTTP;
-import casmi.io.parser.XML;
-import casmi.util.FileUtil;
+import jp.xcoo.casmi.geneview.layout.GeneAssembler;
+import jp.xcoo.casmi.geneview.layout.IncrementalLayout;
+import jp.xcoo.casmi.geneview.layout.LaneLayout;
+import jp.xcoo.casmi.geneview.metrics.Metrics;
+import jp.xcoo.casmi.geneview.parse.FeatureCollector;
+import jp.xcoo.casmi.geneview.source.DASFeatureSource;
+import jp.xcoo.casmi.geneview.source.FeatureSource;
+import jp.xcoo.casmi.geneview.source.FeatureSources;
+import jp.xcoo.casmi.geneview.source.Validators;
 
 /**
- * class for Loading RefGene Data from UCSC DAS server
+ * class for Loading RefGene Data from a FeatureSource, by default the UCSC DAS server
+ *
+ * Regions are fetched in aligned tiles of TILE_SIZE base pairs, per annotation type.
+ * Each tile is cached on its own through a CacheManager, and adjacent missing tiles are
+ * requested with a single segment. Requests for different types and regions run
+ * concurrently on a small pool of threads. Expired tile caches are revalidated tile by
+ * tile with a conditional query carrying the validators they were written with, and
+ * read again if the features did not change or the source can not be reached.
+ *
+ * Regions may be loaded from several threads. Exons are kept in a FeatureStore which
+ * is only appended to on each merge, and genes are updated incrementally from the
+ * features merged, so that genes already laid out keep their lanes. Lists returned
+ * by the getters are never modified afterwards. Loaded data is replaced holding the
+ * lock of the loader, so a consistent view of genes, store and revision is taken
+ * synchronizing on it.
  *
  * @author K. Nishimura
  *
  */
 public class GeneLoader {
 
-	private static final String CACHE_DIRECTORY_PATH = casmi.util.SystemUtil.JAVA_TMP_PATH;
+	public static final String DAS_FEATURES_URL = DASFeatureSource.UCSC_HG19_URL;
+
+	public static final int TILE_SIZE = 100000;
+
+	// requests running at once, over all types and regions
+	private static final int FETCH_THREADS = 4;
+	private static final long IDLE_SECONDS = 30;
+
+	private final FeatureSource source;
+	private final String[] types;
+	private final CacheManager cache;
 
-	private GeneXMLParser parser;
-	private List<Gene> genes = null;
+	private volatile ViewScale viewScale = null;
+	// shared by parsers and stores, so that ids assigned while parsing stay valid
+	private final SymbolTable symbols = new SymbolTable();
 
+	private volatile FeatureStore store = new FeatureStore(symbols);
+	// genes and lanes of the store, updated on each merge
+	private IncrementalLayout layout = new IncrementalLayout(store);
+	private volatile List<Exon> exons = new ArrayList<Exon>();
+	private volatile List<Gene> genes = new ArrayList<Gene>();
+	private volatile int revision = 0;
+
+	private final Set<String> loadedTiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Create a loader for the source given by the system property geneview.source, loading
+	 * its default types (see FeatureSources).
+	 */
 	public GeneLoader() {
-		this.parser = new GeneXMLParser();
+		this(FeatureSources.getDefault(CacheManager.getDefault()), CacheManager.getDefault());
+	}
+
+	private GeneLoader(FeatureSource source, CacheManager cache) {
+		this(source, FeatureSources.getDefaultTypes(source), cache);
+	}
+
+	public GeneLoader(String dasURL, String[] types) {
+		this(new DASFeatureSource(dasURL, CacheManager.getDefault()), types, CacheManager.getDefault());
+	}
+
+	public GeneLoader(FeatureSource source, String[] types, CacheManager cache) {
+		this.source = source;
+		this.types = types.clone();
+		this.cache = cache;
+
+		this.executor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, IDLE_SECONDS, TimeUnit.SECONDS,
+		                                       new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+			private int count = 0;
+
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "feature-fetch-" + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	public FeatureSource getFeatureSource() {
+		return source;
 	}
 
+	/**
+	 * Returns the loaded range.
+	 */
 	public ViewScale getViewScale() {
-		return this.parser.getViewScale();
+		return viewScale;
 	}
 
+	/**
+	 * Returns loaded exons in order of loading, as views of the feature store.
+	 */
 	public List<Exon> getExons() {
-		return this.parser.getExons();
+		return exons;
+	}
+
+	public FeatureStore getFeatureStore() {
+		return store;
 	}
 
 	public List<Gene> getGenes() {
 		return genes;
 	}
 
+	/**
+	 * Returns a number incremented whenever loaded data changes.
+	 */
+	public int getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Load a whole DAS response, replacing loaded data. Responses are read from the DAS
+	 * server whatever the feature source of this loader is.
+	 */
     public void load(String url){
-    	final String cacheFilePath = CACHE_DIRECTORY_PATH + createDigest(url) + ".xml";
+    	FeatureCollector collector = fetch(url);
+
+    	synchronized (this) {
+    		// lists handed out keep referring to the old store
+    		FeatureStore result = new FeatureStore(symbols);
+
+    		this.loadedTiles.clear();
+
+    		addExons(result, collector.getExons());
+
+    		this.layout = new IncrementalLayout(result);
+    		this.genes = updateGenes(layout);
+    		this.exons = result.asExonList();
+    		this.store = result;
+    		this.viewScale = collector.getViewScale();
+    		this.revision++;
+
+    		updateMetrics();
+    	}
+    }
+
+    /**
+     * Load tiles intersecting the region [start, end] (1-based, inclusive) which are not loaded yet.
+     *
+     * Each annotation type is requested on its own, and runs of missing tiles of all types
+     * are fetched concurrently. Results are merged in order of type and position, whatever
+     * order they arrive in.
+     *
+     * @return true if new data has been merged
+     */
+    public boolean loadRegion(String chr, int start, int end) {
+    	final int first = tileIndex(start);
+    	final int last = tileIndex(end);
+
+    	// runs of tiles not loaded yet, in order of type and position
+    	List<TileRun> runs = new ArrayList<TileRun>();
+
+    	for( String type : types ) {
+    		int runStart = -1;
+
+    		for( int tile = first; tile <= last + 1; tile++ ) {
+    			if( tile <= last && !loadedTiles.contains(tileKey(chr, tile, type)) ) {
+    				if( runStart < 0 ) {
+    					runStart = tile;
+    				}
+    			} else if( runStart >= 0 ) {
+    				runs.add(new TileRun(chr, type, runStart, tile - 1));
+    				runStart = -1;
+    			}
+    		}
+    	}
+
+    	if( runs.isEmpty() ) {
+    		return false;
+    	}
 
-    	if( FileUtil.exist(cacheFilePath) ) {
-    		readFromCache(cacheFilePath);
+    	List<Exon> arrived = new ArrayList<Exon>();
+    	List<TileRun> completed = new ArrayList<TileRun>();
+
+    	if( runs.size() == 1 ) {
+    		arrived.addAll(runs.get(0).call());
+    		completed.add(runs.get(0));
     	} else {
-    		readFromServer(url, cacheFilePath);
+    		fetchConcurrently(runs, arrived, completed);
+    	}
+
+    	if( completed.isEmpty() ) {
+    		return false;
     	}
 
-    	this.genes = buildGenes(this.getExons());
+    	merge(chr, tileStart(first), tileEnd(last), arrived, completed);
+
+    	return true;
     }
 
-    private static String createDigest(String source) {
-    	try {
-    		MessageDigest md = MessageDigest.getInstance("MD5");
+    /**
+     * Returns true if the tile has been loaded for all types.
+     */
+    public boolean isTileLoaded(String chr, int tile) {
+    	for( String type : types ) {
+    		if( !loadedTiles.contains(tileKey(chr, tile, type)) ) {
+    			return false;
+    		}
+    	}
+
+    	return true;
+    }
+
+    /**
+     * Stop the threads fetching tiles and write the changes of the cache to its manifest.
+     */
+    public void shutdown() {
+    	executor.shutdownNow();
+    	cache.flush();
+    }
 
-    		byte[] data = source.getBytes();
-    		md.update(data);
+    /**
+     * Returns index of the tile containing the (1-based) position.
+     */
+    public static int tileIndex(int position) {
+    	return (Math.max(1, position) - 1) / TILE_SIZE;
+    }
+
+    public static int tileStart(int tile) {
+    	return tile * TILE_SIZE + 1;
+    }
 
-    		byte[] digest = md.digest();
+    public static int tileEnd(int tile) {
+    	return (tile + 1) * TILE_SIZE;
+    }
 
-    		StringBuilder sb = new StringBuilder();
-    		for (int i = 0; i < digest.length; i++) {
-    			sb.append(Integer.toHexString(0xff & digest[i]));
+    /*
+     * Run all runs on the executor and collect their results in the order of runs. When
+     * interrupted, runs finished so far are kept and the others are cancelled.
+     */
+    private void fetchConcurrently(List<TileRun> runs, List<Exon> arrived, List<TileRun> completed) {
+    	List<Future<List<Exon>>> futures = new ArrayList<Future<List<Exon>>>(runs.size());
+
+    	for( TileRun run : runs ) {
+    		futures.add(executor.submit(run));
+    	}
+
+    	for( int i = 0; i < futures.size(); i++ ) {
+    		try {
+    			arrived.addAll(futures.get(i).get());
+    			completed.add(runs.get(i));
+    		} catch (InterruptedException e) {
+    			for( Future<List<Exon>> f : futures ) {
+    				f.cancel(true);
+    			}
+
+    			Thread.currentThread().interrupt();
+    			return;
+    		} catch (ExecutionException e) {
+    			e.getCause().printStackTrace();
+    		} catch (CancellationException e) {
+    			// the executor has been shut down
     		}
-    		return sb.toString();
-    	} catch (Exception e) {
-    		return null;
     	}
     }
 
+    private static String tileKey(String chr, int tile, String type) {
+    	return chr + ":" + tile + ":" + type;
+    }
+
+    private String tileSource(String chr, int tile, String type) {
+    	return source.getName() + "#" + tileKey(chr, tile, type);
+    }
+
+    private String tileCacheName(String chr, int tile, String type) {
+    	return CacheManager.createKey(tileSource(chr, tile, type)) + FeatureCacheFile.FILE_EXTENSION;
+    }
+
+    private boolean readTileCache(String chr, int tile, String type, List<Exon> arrived) {
+    	return readTileCache(chr, tile, type, arrived, false);
+    }
+
+    private boolean readTileCache(String chr, int tile, String type, List<Exon> arrived, boolean acceptExpired) {
+    	String cacheName = tileCacheName(chr, tile, type);
+
+    	if( !acceptExpired && cache.isExpired(cacheName) ) {
+    		return false;
+    	}
+
+    	FeatureCollector collector = readFromBinaryCache(cacheName);
+
+    	if( collector == null ) {
+    		return false;
+    	}
+
+    	arrived.addAll(collector.getExons());
+    	Metrics.FETCHED_FEATURES.add(collector.getExons().size());
+
+    	return true;
+    }
+
     /*
-	 * Read RefGene Data from cache
-	 */
-    private void readFromCache(String cachePath) {
-    	XML xml = new XML();
+     * Ask the source whether the features of an expired tile cache changed, with the
+     * validators the cache was written with. The cache is read again if they did not
+     * or the source can not be reached; otherwise the tile is read from the response
+     * and cached.
+     *
+     * @return false if there is no expired cache, or neither the source nor the cache could be read
+     */
+    private boolean revalidateTileCache(String chr, int tile, String type, List<Exon> arrived) {
+    	String cacheName = tileCacheName(chr, tile, type);
+
+    	if( !cache.isExpired(cacheName) ) {
+    		return false;
+    	}
+
+    	Validators validators = new Validators(cache.getETag(cacheName), cache.getLastModified(cacheName));
+    	FeatureCollector collector = new FeatureCollector();
+
+    	try {
+    		if( !source.queryIfModified(chr, tileStart(tile), tileEnd(tile), new String[] {type}, symbols, collector,
+    		                            validators) ) {
+    			cache.revalidate(cacheName);
+    			return readTileCache(chr, tile, type, arrived, true);
+    		}
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    		System.err.println("can not revalidate " + type + " features of " + chr + ":" + tileStart(tile) + "-"
+    		                   + tileEnd(tile));
 
+    		// keep using the expired cache while the source can not be reached
+    		return readTileCache(chr, tile, type, arrived, true);
+    	}
+
+    	writeTileCaches(chr, type, tile, tile, collector.getExons(), validators);
+
+    	arrived.addAll(collector.getExons());
+    	Metrics.FETCHED_FEATURES.add(collector.getExons().size());
+
+    	return true;
+    }
+
+    /*
+     * Fetch tiles [firstTile, lastTile] of a type with one request and cache them tile by tile.
+     *
+     * @return false if the request failed
+     */
+    private boolean fetchTiles(String chr, String type, int firstTile, int lastTile, List<Exon> arrived) {
+    	FeatureCollector collector = new FeatureCollector();
+    	Validators validators = new Validators();
+
+    	boolean completed = false;
     	try {
-    		xml.parseFile(new File(cachePath));
-    	} catch (ParserException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+    		source.queryIfModified(chr, tileStart(firstTile), tileEnd(lastTile), new String[] {type}, symbols, collector,
+    		                       validators);
+    		completed = true;
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    		System.err.println("can not read " + type + " features of " + chr + ":" + tileStart(firstTile) + "-"
+    		                   + tileEnd(lastTile));
+    	}
+
+    	if( completed ) {
+    		writeTileCaches(chr, type, firstTile, lastTile, collector.getExons(), validators);
+    	}
+
+    	arrived.addAll(collector.getExons());
+    	Metrics.FETCHED_FEATURES.add(collector.getExons().size());
 
-    	parser.parse(xml);
+    	return completed;
     }
 
-	/*
-	 * Read RefGene Data to connect DAS server using type=refGene
-	 */
-	private void readFromServer(String url, String cachePath) {
-		HTTP http = null;
-		Reader reader = null;
-		XML xml = new XML();
-
-		try {
-			http = new HTTP(url);
-			reader = http.requestGet();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println("can not download file");
-		}
-
-		try {
-			xml.parseReader(reader);
-		} catch (ParserException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			http.disconnect();
-			reader.close();
-		}
-
-		try {
-			xml.save(new File(cachePath));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		parser.parse(xml);
-	}
+    /*
+     * Cache fetched features tile by tile, with the validators of the response. An entity
+     * tag names the response of the whole request, so it is kept only for a tile fetched
+     * on its own; a modification time holds for any part of it.
+     */
+    private void writeTileCaches(String chr, String type, int firstTile, int lastTile, List<Exon> fetched,
+                                 Validators validators) {
+    	final String etag = firstTile == lastTile ? validators.getETag() : null;
+
+    	List<List<Exon>> tiles = new ArrayList<List<Exon>>();
+
+    	for( int tile = firstTile; tile <= lastTile; tile++ ) {
+    		tiles.add(new ArrayList<Exon>());
+    	}
 
-	private static Gene searchGene(List<Gene> genes, String group) {
-		for( Gene g : genes ) {
-			if( g.getGroup().equalsIgnoreCase(group) ) {
-				return g;
-			}
-		}
+    	for( Exon e : fetched ) {
+    		int left = Math.max(firstTile, tileIndex(Math.min(e.getStart(), e.getEnd())));
+    		int right = Math.min(lastTile, tileIndex(Math.max(e.getStart(), e.getEnd())));
 
-		return null;
-	}
+    		for( int tile = left; tile <= right; tile++ ) {
+    			tiles.get(tile - firstTile).add(e);
+    		}
+    	}
 
-    private static List<Gene> buildGenes(List<Exon> exons) {
+    	for( int tile = firstTile; tile <= lastTile; tile++ ) {
+    		ViewScale tileScale = new ViewScale(chr, tileStart(tile), tileEnd(tile));
+    		String source = tileSource(chr, tile, type);
 
-    	// create genes
+    		writeBinaryCache(tileCacheName(chr, tile, type), source, tileScale, tiles.get(tile - firstTile), etag,
+    		                 validators.getLastModified());
+    	}
+    }
 
-    	List<Gene> result = new ArrayList<Gene>();
+    /*
+     * Merge exons of finished runs. Tiles of the runs which were fetched or read from a
+     * cache count as loaded from now on; tiles whose request failed are requested again
+     * the next time a region covering them is loaded.
+     */
+    private synchronized void merge(String chr, int start, int end, List<Exon> arrived, List<TileRun> completed) {
+    	FeatureStore result = store;
+
+    	addExons(result, arrived);
+
+    	this.genes = updateGenes(layout);
+    	this.exons = result.asExonList();
+    	extendViewScale(chr, start, end);
+    	this.revision++;
+
+    	updateMetrics();
+
+    	for( TileRun run : completed ) {
+    		for( int tile = run.firstTile; tile <= run.lastTile; tile++ ) {
+    			if( run.loaded[tile - run.firstTile] ) {
+    				loadedTiles.add(tileKey(run.chr, tile, run.type));
+    			}
+    		}
+    	}
+    }
+
+    /*
+     * Add exons to the store, which skips exons already loaded from a neighbouring tile.
+     */
+    private static void addExons(FeatureStore result, List<Exon> arrived) {
+    	for( Exon e : arrived ) {
+    		result.add(e);
+    	}
+    }
+
+    private void updateMetrics() {
+    	Metrics.LOADED_FEATURES.set(store.size());
+    	Metrics.LOADED_GENES.set(genes.size());
+    }
 
-    	for(Exon e: exons){
-    		Gene g = searchGene(result, e.getGroup());
+    private void extendViewScale(String chr, int start, int end) {
+    	if( viewScale == null || !viewScale.getChr().equals(chr) ) {
+    		viewScale = new ViewScale(chr, start, end);
+    	} else {
+    		viewScale = new ViewScale(chr, Math.min(viewScale.getStart(), start), Math.max(viewScale.getStop(), end));
+    	}
+    }
 
-    		if( g == null ) {
+    /*
+     * Fetch a DAS response through the binary cache, the XML cache or the server.
+     */
+    private FeatureCollector fetch(String url) {
+    	final String binaryCacheName = CacheManager.createKey(url) + FeatureCacheFile.FILE_EXTENSION;
 
-    			// add new gene
-    			g = new Gene(e.getGroup(), e.getChr(), e.getStart(), e.getEnd(), e.getOrientation(), e.getType());
-    			result.add(g);
+    	// an expired cache is only used when the response can not be fetched again
+    	FeatureCollector collector = cache.isExpired(binaryCacheName) ? null : readFromBinaryCache(binaryCacheName);
 
-    		} else {
+    	if( collector == null ) {
+    		collector = new FeatureCollector();
+
+    		// import XML from the cache or the server
+    		DASFeatureSource das = source instanceof DASFeatureSource ? (DASFeatureSource)source
+    		                                                          : new DASFeatureSource(DAS_FEATURES_URL, cache);
+
+    		try {
+    			das.fetch(url, symbols, collector);
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    			System.err.println("can not download file");
+
+    			FeatureCollector expired = readFromBinaryCache(binaryCacheName);
+    			return expired != null ? expired : collector;
+    		}
+
+    		writeBinaryCache(binaryCacheName, url, collector.getViewScale(), collector.getExons(), null, 0);
+    	}
 
-    			// update gene start and stop
-    			if(g.getStart() > e.getStart() ){
-    				g.setStart( e.getStart() );
+    	Metrics.FETCHED_FEATURES.add(collector.getExons().size());
+
+    	return collector;
+    }
+
+    /*
+     * Read RefGene Data from binary cache, returns null if the cache can not be used.
+     * Uncompressed entries are mapped; compressed ones are decompressed into memory.
+     */
+    private FeatureCollector readFromBinaryCache(String cacheName) {
+    	FeatureCollector collector = new FeatureCollector();
+
+    	try {
+    		if( cache.getCompression(cacheName) == Compression.NONE ) {
+    			File cacheFile = cache.lookup(cacheName);
+
+    			if( cacheFile == null ) {
+    				return null;
     			}
 
-    			if(g.getEnd() < e.getEnd() ){
-    				g.setEnd( e.getEnd() );
+    			FeatureCacheFile.read(cacheFile, collector);
+    		} else {
+    			InputStream in = cache.openEntry(cacheName);
+
+    			if( in == null ) {
+    				return null;
     			}
 
+    			FeatureCacheFile.read(in, collector);
     		}
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    		cache.invalidate(cacheName);
+    		return null;
+    	}
+
+    	return collector;
+    }
+
+    /*
+     * Write a binary cache compressed with the compression of the cache manager, with the
+     * HTTP validators of the response it was read from if any.
+     */
+    private void writeBinaryCache(String cacheName, String source, ViewScale viewScale, List<Exon> exons,
+                                  String etag, long lastModified) {
+    	if( viewScale == null ) {
+    		return;
     	}
 
+    	final Compression compression = cache.getCompression();
+    	File temporaryFile = null;
+    	long rawSize;
+
+    	try {
+    		temporaryFile = cache.createTemporaryFile(cacheName);
+    		rawSize = FeatureCacheFile.write(temporaryFile, viewScale, exons, compression);
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    		cache.abort(temporaryFile);
+    		return;
+    	}
+
+    	cache.commit(temporaryFile, cacheName, source, compression, rawSize, etag, lastModified);
+    }
+
+    private static List<Gene> updateGenes(IncrementalLayout layout) {
+    	long startTime = System.nanoTime();
+
+    	List<Gene> result = layout.update();
+
+    	Metrics.BUILD_GENES_TIME.updateSince(startTime);
+
+    	return result;
+    }
+
+    /*
+     * Assemble genes of the store from scratch and order them in lanes. Package visible for the benchmarks.
+     */
+    static List<Gene> buildGenes(FeatureStore store) {
+    	long startTime = System.nanoTime();
+
+    	// create genes
+
+    	List<Gene> result = GeneAssembler.assemble(store);
 
     	// setup ordering in accordance with +/- orientation and genes overlapping
+    	long layoutStartTime = System.nanoTime();
+    	LaneLayout.layout(result);
+    	Metrics.LAYOUT_TIME.updateSince(layoutStartTime);
 
-    	List<Gene> tmpGenes = new ArrayList<Gene>();
+    	// setup order of exons
+    	GeneAssembler.propagateOrder(result, store);
 
-    	for(Gene g: result){
+    	Metrics.BUILD_GENES_TIME.updateSince(startTime);
+
+    	return result;
+    }
 
-    		int order = 0;
+    /*
+     * Tiles [firstTile, lastTile] of a type, read from the tile caches where possible
+     * (revalidating expired ones) and otherwise fetched with one request per run of
+     * missing tiles. After call(),
+     * loaded tells which tiles were fetched or read from a cache.
+     */
+    private class TileRun implements Callable<List<Exon>> {
+
+    	final String chr;
+    	final String type;
+    	final int firstTile;
+    	final int lastTile;
+    	final boolean[] loaded;
+
+    	TileRun(String chr, String type, int firstTile, int lastTile) {
+    		this.chr = chr;
+    		this.type = type;
+    		this.firstTile = firstTile;
+    		this.lastTile = lastTile;
+    		this.loaded = new boolean[lastTile - firstTile + 1];
+    	}
 
-    		switch( g.getOrientation() ) {
-    		case OrientationPlus:
-    			order ++;
-    			break;
-    		case OrientationMinus:
-    			order --;
-    			break;
-    		case OrientationUnknown:
-    		    break;
-    		}
+    	public List<Exon> call() {
+    		List<Exon> result = new ArrayList<Exon>();
+    		int runStart = -1;
 
-    		for(Gene tg: tmpGenes) {
-
-    			if( g != tg && g.getOrientation() == tg.getOrientation() ) {
-
-    				if( g.checkOverlap(tg) ) {
-    					switch( g.getOrientation() ) {
-    		    		case OrientationPlus:
-    		    			order ++;
-    		    			break;
-    		    		case OrientationMinus:
-    		    			order --;
-    		    			break;
-    		    		case OrientationUnknown:
-    		                break;
-    		    		}
-    				}
+    		for( int tile = firstTile; tile <= lastTile + 1; tile++ ) {
+    			if( tile <= lastTile ) {
+    				loaded[tile - firstTile] = readTileCache(chr, tile, type, result)
+    				                           || revalidateTileCache(chr, tile, type, result);
     			}
-    		}
 
-    		g.setOrder(order);
+    			if( tile <= lastTile && !loaded[tile - firstTile] ) {
+    				if( runStart < 0 ) {
+    					runStart = tile;
+    				}
+    			} else if( runStart >= 0 ) {
+    				boolean fetched = fetchTiles(chr, type, runStart, tile - 1, result);
 
-    		tmpGenes.add(g);
+    				for( int t = runStart; t < tile; t++ ) {
 
-    		// setup order of exons
-    		for(Exon e: exons){
-    			if(e.getGroup().equalsIgnoreCase(g.getGroup())){
-    				e.setOrder(order);
+    					// fall back to expired caches; features fetched before the failure are merged only once
+    					loaded[t - firstTile] = fetched || readTileCache(chr, t, type, result, true);
+    				}
+    				runStart = -1;
     			}
     		}
-    	}
 
-    	return result;
+    		return result;
+    	}
     }
-}
\ No newline at end of file
+}
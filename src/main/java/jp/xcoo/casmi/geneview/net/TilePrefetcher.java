@@ -0,0 +1,253 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * loads tiles of a GeneLoader in background threads, ahead of the view
+ *
+ * Tiles in view are requested first, followed by tiles in the direction of travel
+ * within the distance the view is expected to cover in LOOKAHEAD_SECONDS.
+ * Requests which fall out of that window are cancelled.
+ */
+public class TilePrefetcher {
+
+	private static final double LOOKAHEAD_SECONDS = 2.0;
+	private static final int MAX_LOOKAHEAD_TILES = 16;
+
+	private static final int MAX_PENDING_RUNS = 8;
+	private static final int MAX_RUN_TILES = 8;
+
+	private final GeneLoader loader;
+	private final ThreadPoolExecutor executor;
+
+	private final Map<Run, RunTask> pending = new HashMap<Run, RunTask>();
+
+	public TilePrefetcher(GeneLoader loader, int numThreads) {
+		this.loader = loader;
+		this.executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+		                                       new ArrayBlockingQueue<Runnable>(MAX_PENDING_RUNS),
+		                                       new ThreadFactory() {
+
+			private int count = 0;
+
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "tile-prefetch-" + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Request tiles for the visible range [visibleStart, visibleEnd] moving with velocity
+	 * (base pairs per second, positive towards larger positions).
+	 */
+	public synchronized void update(String chr, int visibleStart, int visibleEnd, double velocity) {
+		final int first = GeneLoader.tileIndex(visibleStart);
+		final int last = GeneLoader.tileIndex(visibleEnd);
+
+		int ahead = (int)Math.ceil(Math.abs(velocity) * LOOKAHEAD_SECONDS / GeneLoader.TILE_SIZE);
+		ahead = Math.min(MAX_LOOKAHEAD_TILES, Math.max(1, ahead));
+
+		// predicted window, one tile of margin behind
+		final int predictedFirst = Math.max(0, velocity < 0 ? first - ahead : first - 1);
+		final int predictedLast = velocity > 0 ? last + ahead : last + 1;
+
+		cancelOutside(chr, predictedFirst, predictedLast);
+
+		// tiles in order of priority
+		List<Integer> tiles = new ArrayList<Integer>();
+
+		for( int tile = first; tile <= last; tile++ ) {
+			tiles.add(tile);
+		}
+
+		if( velocity < 0 ) {
+			for( int tile = first - 1; tile >= predictedFirst; tile-- ) {
+				tiles.add(tile);
+			}
+			tiles.add(last + 1);
+		} else {
+			for( int tile = last + 1; tile <= predictedLast; tile++ ) {
+				tiles.add(tile);
+			}
+			if( first - 1 >= predictedFirst ) {
+				tiles.add(first - 1);
+			}
+		}
+
+		submit(chr, tiles);
+	}
+
+	public synchronized void shutdown() {
+		List<RunTask> tasks = new ArrayList<RunTask>(pending.values());
+		pending.clear();
+
+		for( RunTask task : tasks ) {
+			task.cancel(true);
+		}
+
+		executor.shutdownNow();
+	}
+
+	private void cancelOutside(String chr, int firstTile, int lastTile) {
+		Iterator<Map.Entry<Run, RunTask>> it = pending.entrySet().iterator();
+		boolean cancelled = false;
+
+		while( it.hasNext() ) {
+			Map.Entry<Run, RunTask> entry = it.next();
+			Run run = entry.getKey();
+
+			if( !run.chr.equals(chr) || run.lastTile < firstTile || run.firstTile > lastTile ) {
+				it.remove();
+				entry.getValue().cancel(true);
+				cancelled = true;
+			}
+		}
+
+		if( cancelled ) {
+			// drop cancelled runs from the queue
+			executor.purge();
+		}
+	}
+
+	/*
+	 * Submit missing tiles, coalescing neighbours in the list into runs of adjacent tiles.
+	 */
+	private void submit(String chr, List<Integer> tiles) {
+		int runFirst = -1, runLast = -1;
+
+		for( int tile : tiles ) {
+			if( pending.size() >= MAX_PENDING_RUNS ) {
+				return;
+			}
+
+			boolean missing = !loader.isTileLoaded(chr, tile) && !isPending(chr, tile);
+
+			if( missing && runFirst >= 0 && runLast - runFirst + 1 < MAX_RUN_TILES
+			    && (tile == runLast + 1 || tile == runFirst - 1) ) {
+				runFirst = Math.min(runFirst, tile);
+				runLast = Math.max(runLast, tile);
+				continue;
+			}
+
+			if( runFirst >= 0 ) {
+				submit(new Run(chr, runFirst, runLast));
+				runFirst = -1;
+			}
+
+			if( missing ) {
+				runFirst = runLast = tile;
+			}
+		}
+
+		if( runFirst >= 0 && pending.size() < MAX_PENDING_RUNS ) {
+			submit(new Run(chr, runFirst, runLast));
+		}
+	}
+
+	private void submit(Run run) {
+		RunTask task = new RunTask(run);
+
+		try {
+			executor.execute(task);
+			pending.put(run, task);
+		} catch (RejectedExecutionException e) {
+			// queue is full, the run is requested again on a later update
+		}
+	}
+
+	private boolean isPending(String chr, int tile) {
+		for( Run run : pending.keySet() ) {
+			if( run.chr.equals(chr) && run.firstTile <= tile && tile <= run.lastTile ) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private synchronized void finished(Run run, RunTask task) {
+		if( pending.get(run) == task ) {
+			pending.remove(run);
+		}
+	}
+
+	private static class Run {
+
+		final String chr;
+		final int firstTile;
+		final int lastTile;
+
+		Run(String chr, int firstTile, int lastTile) {
+			this.chr = chr;
+			this.firstTile = firstTile;
+			this.lastTile = lastTile;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if( !(obj instanceof Run) ) {
+				return false;
+			}
+
+			Run other = (Run)obj;
+
+			return chr.equals(other.chr) && firstTile == other.firstTile && lastTile == other.lastTile;
+		}
+
+		@Override
+		public int hashCode() {
+			return (chr.hashCode() * 31 + firstTile) * 31 + lastTile;
+		}
+	}
+
+	private class RunTask extends FutureTask<Void> {
+
+		private final Run run;
+
+		RunTask(final Run run) {
+			super(new Runnable() {
+
+				public void run() {
+					loader.loadRegion(run.chr, GeneLoader.tileStart(run.firstTile), GeneLoader.tileEnd(run.lastTile));
+				}
+			}, null);
+
+			this.run = run;
+		}
+
+		@Override
+		protected void done() {
+			finished(run, this);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.parse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.SymbolTable;
+import jp.xcoo.casmi.geneview.data.type.GeneOrientaion;
+import jp.xcoo.casmi.geneview.data.type.GeneType;
+
+/**
+ * BED annotation parser
+ *
+ * Each line is a gene (group) named by the name column. Lines with blocks (BED12)
+ * give one exon per block, other lines a single exon. Positions are converted from
+ * 0-based half-open to 1-based inclusive as in DAS. BED has no feature types, so all
+ * features get the type given to parse(), or the name of a track line.
+ *
+ * No segments are passed to the handler.
+ */
+public class BEDParser {
+
+	private static final String CHARSET = "UTF-8";
+
+	private static final String TRACK_PREFIX = "track";
+	private static final String BROWSER_PREFIX = "browser";
+	private static final String COMMENT_PREFIX = "#";
+	private static final String TRACK_NAME_KEY = "name=";
+
+	private final SymbolTable symbols;
+
+	public BEDParser() {
+		this(null);
+	}
+
+	public BEDParser(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Parse a BED stream. The stream is left open; closing it is up to the caller.
+	 */
+	public void parse(InputStream in, String type, FeatureHandler handler) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, CHARSET));
+
+		String typeName = type;
+		GeneType geneType = GeneXMLParser.converGeneType(type);
+
+		String line;
+		int lineNumber = 0;
+
+		while( (line = reader.readLine()) != null ) {
+			lineNumber++;
+
+			if( line.length() == 0 || line.startsWith(COMMENT_PREFIX) || line.startsWith(BROWSER_PREFIX) ) {
+				continue;
+			}
+
+			if( line.startsWith(TRACK_PREFIX) ) {
+				String name = trackName(line);
+
+				if( name != null ) {
+					typeName = name;
+					geneType = GeneXMLParser.converGeneType(name);
+				}
+				continue;
+			}
+
+			try {
+				parseLine(line.split("\t"), typeName, geneType, handler);
+			} catch (NumberFormatException e) {
+				throw new IOException("invalid BED line " + lineNumber + ": " + line);
+			} catch (ArrayIndexOutOfBoundsException e) {
+				throw new IOException("invalid BED line " + lineNumber + ": " + line);
+			}
+		}
+	}
+
+	private void parseLine(String[] fields, String typeName, GeneType type, FeatureHandler handler) {
+		final String chr = fields[0];
+		final int chrStart = Integer.parseInt(fields[1].trim());
+		final int chrEnd = Integer.parseInt(fields[2].trim());
+
+		String group = fields.length > 3 ? fields[3] : chr + ":" + (chrStart + 1) + "-" + chrEnd;
+		GeneOrientaion orientation = fields.length > 5 ? GeneXMLParser.convertGeneOrientation(fields[5].trim())
+		                                               : GeneOrientaion.OrientationUnknown;
+
+		int chrID = -1, groupID = -1;
+
+		if( symbols != null ) {
+			chrID = symbols.internFolded(chr);
+			groupID = symbols.internFolded(group);
+		}
+
+		if( fields.length < 12 ) {
+			handler.onExon(createExon(group, chr, chrStart + 1, chrEnd, orientation, typeName, type, chrID, groupID,
+			                          group));
+			return;
+		}
+
+		final int blockCount = Integer.parseInt(fields[9].trim());
+		String[] sizes = fields[10].split(",");
+		String[] starts = fields[11].split(",");
+
+		for( int i = 0; i < blockCount; i++ ) {
+			int start = chrStart + Integer.parseInt(starts[i].trim());
+			int end = start + Integer.parseInt(sizes[i].trim());
+
+			handler.onExon(createExon(group + "." + (i + 1), chr, start + 1, end, orientation, typeName, type, chrID,
+			                          groupID, group));
+		}
+	}
+
+	private static Exon createExon(String id, String chr, int start, int end, GeneOrientaion orientation,
+	                               String typeName, GeneType type, int chrID, int groupID, String group) {
+		Exon e = new Exon(id, chr, start, end, orientation, "", group, type);
+
+		e.setTypeName(typeName);
+		e.setChrID(chrID);
+		e.setGroupID(groupID);
+
+		return e;
+	}
+
+	private static String trackName(String line) {
+		int index = line.indexOf(TRACK_NAME_KEY);
+
+		if( index < 0 ) {
+			return null;
+		}
+
+		String value = line.substring(index + TRACK_NAME_KEY.length());
+
+		if( value.startsWith("\"") ) {
+			int end = value.indexOf('"', 1);
+			return end < 0 ? value.substring(1) : value.substring(1, end);
+		}
+
+		int end = value.indexOf(' ');
+		return end < 0 ? value : value.substring(0, end);
+	}
+}
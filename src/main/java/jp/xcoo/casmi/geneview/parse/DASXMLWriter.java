@@ -0,0 +1,161 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.parse;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+import jp.xcoo.casmi.geneview.data.type.GeneType;
+
+/**
+ * writer of DAS features documents (DASGFF), readable by GeneStreamParser and GeneXMLParser
+ *
+ * Documents are written as a stream: startDocument(), then startSegment(), writeFeature()
+ * for each exon and endSegment() for each segment, and endDocument().
+ */
+public class DASXMLWriter {
+
+	private static final String KNOWN_GENE_TYPE = "knownGene";
+	private static final String REF_SEQ_GENE_TYPE = "refGene";
+	private static final String OTHER_TYPE = "other";
+
+	private final Writer out;
+
+	public DASXMLWriter(Writer out) {
+		this.out = out;
+	}
+
+	public void startDocument(String href) throws IOException {
+		out.write("<?xml version=\"1.0\" standalone=\"no\"?>\n");
+		out.write("<!DOCTYPE DASGFF SYSTEM \"http://www.biodas.org/dtd/dasgff.dtd\">\n");
+		out.write("<DASGFF>\n");
+		out.write("<GFF version=\"1.0\" href=\"" + escape(href) + "\">\n");
+	}
+
+	public void startSegment(ViewScale segment) throws IOException {
+		String chr = escape(segment.getChr());
+
+		out.write("<SEGMENT id=\"" + chr + "\" start=\"" + segment.getStart() + "\" stop=\"" + segment.getStop()
+		          + "\" version=\"1.00\" label=\"" + chr + "\">\n");
+	}
+
+	public void writeFeature(Exon e) throws IOException {
+		String id = escape(e.getID());
+		String type = e.getTypeName() != null ? escape(e.getTypeName()) : typeName(e.getType());
+
+		out.write("<FEATURE id=\"" + id + "\" label=\"" + id + "\">\n");
+		out.write(" <TYPE id=\"" + type + "\" category=\"transcription\" reference=\"no\">" + type + "</TYPE>\n");
+		out.write(" <METHOD></METHOD>\n");
+		out.write(" <START>" + e.getStart() + "</START>\n");
+		out.write(" <END>" + e.getEnd() + "</END>\n");
+		out.write(" <SCORE>-</SCORE>\n");
+		out.write(" <ORIENTATION>" + orientation(e) + "</ORIENTATION>\n");
+		out.write(" <PHASE>-</PHASE>\n");
+		out.write(" <GROUP id=\"" + escape(e.getGroup()) + "\"></GROUP>\n");
+
+		if( e.getRef() != null && e.getRef().length() > 0 ) {
+			out.write(" <LINK href=\"" + escape(e.getRef()) + "\">Link</LINK>\n");
+		}
+
+		out.write("</FEATURE>\n");
+	}
+
+	public void endSegment() throws IOException {
+		out.write("</SEGMENT>\n");
+	}
+
+	public void endDocument() throws IOException {
+		out.write("</GFF>\n");
+		out.write("</DASGFF>\n");
+		out.flush();
+	}
+
+	/**
+	 * Returns the DAS type name of a gene type.
+	 */
+	public static String typeName(GeneType type) {
+		switch( type ) {
+		case KNOWN:
+			return KNOWN_GENE_TYPE;
+		case REFERENCE_SEQUENCE:
+			return REF_SEQ_GENE_TYPE;
+		default:
+			return OTHER_TYPE;
+		}
+	}
+
+	private static String orientation(Exon e) {
+		switch( e.getOrientation() ) {
+		case OrientationPlus:
+			return "+";
+		case OrientationMinus:
+			return "-";
+		default:
+			return "0";
+		}
+	}
+
+	private static String escape(String s) {
+		if( s == null ) {
+			return "";
+		}
+
+		StringBuilder sb = null;
+
+		for( int i = 0; i < s.length(); i++ ) {
+			char c = s.charAt(i);
+			String replacement;
+
+			switch( c ) {
+			case '&':
+				replacement = "&amp;";
+				break;
+			case '<':
+				replacement = "&lt;";
+				break;
+			case '>':
+				replacement = "&gt;";
+				break;
+			case '"':
+				replacement = "&quot;";
+				break;
+			default:
+				replacement = null;
+				break;
+			}
+
+			if( replacement != null && sb == null ) {
+				sb = new StringBuilder(s.length() + 16);
+				sb.append(s, 0, i);
+			}
+
+			if( sb != null ) {
+				if( replacement != null ) {
+					sb.append(replacement);
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+
+		return sb == null ? s : sb.toString();
+	}
+}
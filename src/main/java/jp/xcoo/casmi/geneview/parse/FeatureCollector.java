@@ -0,0 +1,62 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+
+/**
+ * FeatureHandler collecting segments and exons
+ */
+public class FeatureCollector implements FeatureHandler {
+
+	private ViewScale viewScale = null;
+	private List<ViewScale> viewScales = new ArrayList<ViewScale>();
+	private List<Exon> exons = new ArrayList<Exon>();
+
+	public void onSegment(ViewScale viewScale) {
+		if( this.viewScale == null ) {
+			this.viewScale = viewScale;
+		}
+
+		viewScales.add(viewScale);
+	}
+
+	public void onExon(Exon exon) {
+		exons.add(exon);
+	}
+
+	/**
+	 * Returns the first segment.
+	 */
+	public ViewScale getViewScale() {
+		return viewScale;
+	}
+
+	public List<ViewScale> getViewScales() {
+		return viewScales;
+	}
+
+	public List<Exon> getExons() {
+		return exons;
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.parse;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+
+/**
+ * callback receiving segments and exons while a feature document is parsed
+ */
+public interface FeatureHandler {
+
+	/**
+	 * Called when a SEGMENT element starts.
+	 */
+	void onSegment(ViewScale viewScale);
+
+	/**
+	 * Called as soon as a FEATURE element has been read completely.
+	 */
+	void onExon(Exon exon);
+}
@@ -0,0 +1,216 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.parse;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.SymbolTable;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+
+/**
+ * RefGene Data XML parser reading the DAS response as a stream (StAX)
+ *
+ * Exons are passed to a FeatureHandler as soon as each FEATURE element ends,
+ * so the document is never held in memory as a whole. When a SymbolTable is given,
+ * chromosome and group names are assigned their case folded ids from it.
+ */
+public class GeneStreamParser {
+
+	private static final String SEGMENT_TAG_NAME = "SEGMENT";
+	private static final String FEATURE_TAG_NAME = "FEATURE";
+
+	private static final String TYPE_TAG_NAME = "TYPE";
+	private static final String START_TAG_NAME = "START";
+	private static final String END_TAG_NAME = "END";
+	private static final String GROUP_TAG_NAME = "GROUP";
+	private static final String ORIENTATION_TAG_NAME = "ORIENTATION";
+	private static final String LINK_TAG_NAME = "LINK";
+
+	private static final String ID_ATTRIBUTE_NAME = "id";
+	private static final String START_ATTRIBUTE_NAME = "start";
+	private static final String STOP_ATTRIBUTE_NAME = "stop";
+	private static final String HREF_ATTRIBUTE_NAME = "href";
+
+	private final XMLInputFactory factory;
+	private final SymbolTable symbols;
+
+	public GeneStreamParser() {
+		this(null);
+	}
+
+	public GeneStreamParser(SymbolTable symbols) {
+		this.symbols = symbols;
+		this.factory = XMLInputFactory.newInstance();
+
+		// DAS responses declare an external DTD; never fetch it
+		this.factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		this.factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		this.factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+	}
+
+	/**
+	 * Parse a feature document. The stream is left open; closing it is up to the caller.
+	 */
+	public void parse(InputStream in, FeatureHandler handler) throws XMLStreamException {
+		// the JDK reader closes its input at the end of the document
+		XMLStreamReader reader = factory.createXMLStreamReader(new FilterInputStream(in) {
+
+			@Override
+			public void close() {
+			}
+		});
+
+		try {
+			parse(reader, handler);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void parse(XMLStreamReader reader, FeatureHandler handler) throws XMLStreamException {
+		String chrName = null;
+		int chrID = -1;
+
+		// depth relative to the current FEATURE element, -1 when outside of a feature
+		int featureDepth = -1;
+		boolean hasChildren = false;
+
+		String featureID = null;
+		String featureType = "", featureOrientation = "", featureGroup = "", featureRef = "";
+		int featureStart = 0, featureEnd = 0;
+
+		while( reader.hasNext() ) {
+			switch( reader.next() ) {
+			case XMLStreamConstants.START_ELEMENT:
+				String name = reader.getLocalName();
+
+				if( featureDepth < 0 ) {
+					if( name.equalsIgnoreCase(SEGMENT_TAG_NAME) ) {
+						chrName = reader.getAttributeValue(null, ID_ATTRIBUTE_NAME);
+						int chrStart = Integer.parseInt(reader.getAttributeValue(null, START_ATTRIBUTE_NAME));
+						int chrStop = Integer.parseInt(reader.getAttributeValue(null, STOP_ATTRIBUTE_NAME));
+
+						if( symbols != null ) {
+							chrID = symbols.internFolded(chrName);
+						}
+
+						handler.onSegment(new ViewScale(chrName, chrStart, chrStop));
+					} else if( name.equalsIgnoreCase(FEATURE_TAG_NAME) && chrName != null ) {
+						featureDepth = 0;
+						hasChildren = false;
+
+						featureID = reader.getAttributeValue(null, ID_ATTRIBUTE_NAME);
+						featureType = "";
+						featureOrientation = "";
+						featureGroup = "";
+						featureRef = "";
+						featureStart = 0;
+						featureEnd = 0;
+					}
+					break;
+				}
+
+				featureDepth++;
+
+				// only direct children of FEATURE are read
+				if( featureDepth != 1 ) {
+					break;
+				}
+
+				hasChildren = true;
+
+				if( name.equalsIgnoreCase(TYPE_TAG_NAME) ) {
+					featureType = attribute(reader, ID_ATTRIBUTE_NAME);
+				} else if( name.equalsIgnoreCase(GROUP_TAG_NAME) ) {
+					featureGroup = attribute(reader, ID_ATTRIBUTE_NAME);
+				} else if( name.equalsIgnoreCase(LINK_TAG_NAME) ) {
+					featureRef = attribute(reader, HREF_ATTRIBUTE_NAME);
+				} else if( name.equalsIgnoreCase(START_TAG_NAME) ) {
+					String content = content(reader);
+					featureDepth--;
+
+					if( content.length() > 0 ) {
+						featureStart = Integer.parseInt(content);
+					}
+				} else if( name.equalsIgnoreCase(END_TAG_NAME) ) {
+					String content = content(reader);
+					featureDepth--;
+
+					if( content.length() > 0 ) {
+						featureEnd = Integer.parseInt(content);
+					}
+				} else if( name.equalsIgnoreCase(ORIENTATION_TAG_NAME) ) {
+					String content = content(reader);
+					featureDepth--;
+
+					if( content.length() > 0 ) {
+						featureOrientation = content;
+					}
+				}
+				break;
+
+			case XMLStreamConstants.END_ELEMENT:
+				if( featureDepth > 0 ) {
+					featureDepth--;
+				} else if( featureDepth == 0 ) {
+					featureDepth = -1;
+
+					if( hasChildren ) {
+						Exon e = new Exon(featureID, chrName, featureStart, featureEnd,
+								GeneXMLParser.convertGeneOrientation(featureOrientation), featureRef, featureGroup,
+								GeneXMLParser.converGeneType(featureType));
+						e.setTypeName(featureType);
+
+						if( symbols != null ) {
+							e.setChrID(chrID);
+							e.setGroupID(symbols.internFolded(featureGroup));
+						}
+
+						handler.onExon(e);
+					}
+				} else if( reader.getLocalName().equalsIgnoreCase(SEGMENT_TAG_NAME) ) {
+					chrName = null;
+				}
+				break;
+
+			default:
+				break;
+			}
+		}
+	}
+
+	private static String attribute(XMLStreamReader reader, String name) {
+		String value = reader.getAttributeValue(null, name);
+		return value == null ? "" : value;
+	}
+
+	/*
+	 * Read text content of the current element; the reader is left on its END_ELEMENT.
+	 */
+	private static String content(XMLStreamReader reader) throws XMLStreamException {
+		return reader.getElementText().trim();
+	}
+}
@@ -19,10 +19,21 @@
 package jp.xcoo.casmi.geneview.parse;
 
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import javax.xml.stream.XMLStreamException;
 
 import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.SymbolTable;
 import jp.xcoo.casmi.geneview.data.ViewScale;
 import jp.xcoo.casmi.geneview.data.type.GeneOrientaion;
 import jp.xcoo.casmi.geneview.data.type.GeneType;
@@ -32,28 +43,109 @@ import casmi.io.parser.XMLElement;
 /**
  * RefGene Data XML parser
  *
+ * When a SymbolTable is given, chromosome and group names of exons are assigned their
+ * case folded ids from it.
+ *
  * @author K. Nishimura
  *
  */
 public class GeneXMLParser {
 
+	// features parsed by one fork-join task
+	private static final int PARALLEL_CHUNK_SIZE = 256;
+
+	private static final Comparator<Exon> START_COMPARATOR = new Comparator<Exon>() {
+
+		public int compare(Exon e1, Exon e2) {
+			return e1.getStart() < e2.getStart() ? -1 : (e1.getStart() == e2.getStart() ? 0 : 1);
+		}
+	};
+
+	private static ForkJoinPool defaultPool = null;
+
 	private List<Exon> exons = null;
 	private ViewScale viewScale = null;
+	private List<ViewScale> viewScales = null;
+
+	private final SymbolTable symbols;
+	private final ForkJoinPool pool;
+
+	public GeneXMLParser() {
+		this(null);
+	}
+
+	public GeneXMLParser(SymbolTable symbols) {
+		this(symbols, null);
+	}
+
+	/**
+	 * @param pool pool to parse features of a DOM on in parallel, or null; streams
+	 *             (parse(InputStream)) are always parsed on the calling thread
+	 */
+	public GeneXMLParser(SymbolTable symbols, ForkJoinPool pool) {
+		this.symbols = symbols;
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns a fork-join pool with one thread per processor, shared by all parsers.
+	 */
+	public static synchronized ForkJoinPool getDefaultPool() {
+		if( defaultPool == null ) {
+			defaultPool = new ForkJoinPool();
+		}
+
+		return defaultPool;
+	}
 
 	public List<Exon> getExons() {
 		return exons;
 	}
 
+	/**
+	 * Returns the first segment.
+	 */
 	public ViewScale getViewScale() {
 		return viewScale;
 	}
 
+	/**
+	 * Returns all segments of a parsed DOM.
+	 */
+	public List<ViewScale> getViewScales() {
+		return viewScales;
+	}
+
+	/**
+	 * Parse a feature document from a stream without building a DOM.
+	 */
+	public void parse(InputStream in) throws XMLStreamException {
+		FeatureCollector collector = new FeatureCollector();
+
+		new GeneStreamParser(symbols).parse(in, collector);
+
+		this.viewScale = collector.getViewScale();
+		this.viewScales = collector.getViewScales();
+		this.exons = collector.getExons();
+	}
+
+	/**
+	 * Parse a DOM of a feature document. Exons of all segments are collected; with a
+	 * fork-join pool they are parsed in parallel and ordered by start within each
+	 * segment, otherwise they are in document order.
+	 */
 	public void parse(XMLElement root) {
-		XMLElement segmentNode = searchSegmentNode(root);
+		List<XMLElement> segmentNodes = new ArrayList<XMLElement>();
+		searchSegmentNodes(root, segmentNodes);
+
+		this.viewScales = new ArrayList<ViewScale>();
+		this.exons = new ArrayList<Exon>();
 
-		if( segmentNode != null ) {
+		for( XMLElement segmentNode : segmentNodes ) {
 			parseSegment(segmentNode);
 		}
+
+		this.viewScale = viewScales.isEmpty() ? null : viewScales.get(0);
 	}
 
 	private void parseSegment(XMLElement segmentNode) {
@@ -68,47 +160,102 @@ public class GeneXMLParser {
     	int chrStart = Integer.parseInt(segmentNode.getAttribute(START_ATTRIBUTE_NAME));
     	int chrStop = Integer.parseInt(segmentNode.getAttribute(STOP_ATTRIBUTE_NAME));
 
-    	this.viewScale = new ViewScale(chrName, chrStart, chrStop);
-
-		this.exons = new ArrayList<Exon>();
+    	this.viewScales.add(new ViewScale(chrName, chrStart, chrStop));
 
 		// If this element does not have children, return method.
         if (!segmentNode.hasChildren()) {
             return;
         }
 
+        List<XMLElement> featureNodes = new ArrayList<XMLElement>();
+
         for (XMLElement child : segmentNode.getChildren()) {
         	if(child.getName().equalsIgnoreCase(FEATURE_TAG_NAME)){
-        		Exon e = parseFeature(child, chrName);
-
-        		if( e != null ) {
-        			this.exons.add(e);
-        		}
+        		featureNodes.add(child);
         	}
         }
+
+        if( pool == null ) {
+        	this.exons.addAll(parseFeatures(featureNodes, 0, featureNodes.size(), chrName));
+        	return;
+        }
+
+        List<ForkJoinTask<List<Exon>>> tasks = new ArrayList<ForkJoinTask<List<Exon>>>();
+
+        for( int from = 0; from < featureNodes.size(); from += PARALLEL_CHUNK_SIZE ) {
+        	int to = Math.min(from + PARALLEL_CHUNK_SIZE, featureNodes.size());
+        	tasks.add(pool.submit(new ChunkTask(featureNodes, from, to, chrName)));
+        }
+
+        // chunks are sorted runs in document order; the stable sort merges them and
+        // keeps exons of earlier chunks first on ties
+        List<Exon> result = new ArrayList<Exon>(featureNodes.size());
+
+        for( ForkJoinTask<List<Exon>> task : tasks ) {
+        	result.addAll(task.join());
+        }
+
+        Collections.sort(result, START_COMPARATOR);
+
+        this.exons.addAll(result);
 	}
 
-	private static XMLElement searchSegmentNode(XMLElement root) {
+	/*
+	 * Parse features [from, to) in document order.
+	 */
+	private List<Exon> parseFeatures(List<XMLElement> featureNodes, int from, int to, String chrName) {
+		List<Exon> result = new ArrayList<Exon>(to - from);
+
+		int chrID = -1;
+
+		// folded group ids looked up so far, to keep away from the lock of the symbol table
+		Map<String, Integer> groupIDs = null;
+
+		if( symbols != null ) {
+			chrID = symbols.internFolded(chrName);
+			groupIDs = new HashMap<String, Integer>();
+		}
+
+		for( int i = from; i < to; i++ ) {
+			Exon e = parseFeature(featureNodes.get(i), chrName);
+
+			if( e == null ) {
+				continue;
+			}
+
+			if( symbols != null ) {
+				Integer groupID = groupIDs.get(e.getGroup());
+
+				if( groupID == null ) {
+					groupID = symbols.internFolded(e.getGroup());
+					groupIDs.put(e.getGroup(), groupID);
+				}
+
+				e.setChrID(chrID);
+				e.setGroupID(groupID);
+			}
+
+			result.add(e);
+		}
+
+		return result;
+	}
+
+	private static void searchSegmentNodes(XMLElement root, List<XMLElement> result) {
 
 		final String SEGMENT_TAG_NAME = "SEGMENT";
 
 		if (!root.hasChildren()) {
-            return null;
+            return;
         }
 
         for (XMLElement child : root.getChildren()) {
         	if(child.getName().equalsIgnoreCase(SEGMENT_TAG_NAME)){
-        		return child;
+        		result.add(child);
         	} else {
-        		XMLElement result = searchSegmentNode(child);
-
-        		if( result != null ) {
-        			return result;
-        		}
+        		searchSegmentNodes(child, result);
         	}
         }
-
-        return null;
 	}
 
 	private static Exon parseFeature(XMLElement featureNode, String chrName) {
@@ -165,11 +312,14 @@ public class GeneXMLParser {
         	}
         }
 
-        return new Exon(featureID, chrName, featureStart, featureEnd,
+        Exon e = new Exon(featureID, chrName, featureStart, featureEnd,
         				convertGeneOrientation(featureOrientation), featureRef, featureGroup, converGeneType(featureType));
+        e.setTypeName(featureType);
+
+        return e;
 	}
 
-	private static GeneOrientaion convertGeneOrientation(String orientation) {
+	public static GeneOrientaion convertGeneOrientation(String orientation) {
 		final String PLUS_ORIENTATION = "+";
 		final String MINUS_ORIENTATION = "-";
 
@@ -182,7 +332,7 @@ public class GeneXMLParser {
 		}
 	}
 
-	private static GeneType converGeneType(String type) {
+	public static GeneType converGeneType(String type) {
 		final String KNOWN_GENE_TYPE = "knownGene";
 		final String REF_SEQ_GENE_TYPE = "refGene";
 
@@ -194,4 +344,31 @@ public class GeneXMLParser {
 			return GeneType.OTHER;
 		}
 	}
+
+	/*
+	 * Parses one chunk of features [from, to) and sorts it by start.
+	 */
+	private class ChunkTask extends RecursiveTask<List<Exon>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<XMLElement> featureNodes;
+		private final int from;
+		private final int to;
+		private final String chrName;
+
+		ChunkTask(List<XMLElement> featureNodes, int from, int to, String chrName) {
+			this.featureNodes = featureNodes;
+			this.from = from;
+			this.to = to;
+			this.chrName = chrName;
+		}
+
+		@Override
+		protected List<Exon> compute() {
+			List<Exon> result = parseFeatures(featureNodes, from, to, chrName);
+			Collections.sort(result, START_COMPARATOR);
+			return result;
+		}
+	}
 }
@@ -0,0 +1,309 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import jp.xcoo.casmi.geneview.cache.CacheManager;
+import jp.xcoo.casmi.geneview.metrics.Metrics;
+import jp.xcoo.casmi.geneview.source.FeatureSource;
+import jp.xcoo.casmi.geneview.source.FeatureSources;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP server answering /layout?chr=1&amp;start=500000&amp;end=900000&amp;types=refGene,knownGene
+ * with the gene layout of the region as JSON (see LayoutService)
+ *
+ * Requests are answered by a fixed number of worker threads with a bounded queue;
+ * requests arriving while the queue is full are refused with 503. Responses are gzip
+ * compressed for clients accepting it.
+ *
+ * <pre>
+ * java jp.xcoo.casmi.geneview.server.LayoutServer --port 8081 --threads 8
+ * </pre>
+ */
+public class LayoutServer {
+
+	public static final String LAYOUT_PATH = "/layout";
+
+	public static final int DEFAULT_PORT = 8081;
+	public static final int DEFAULT_QUEUE_SIZE = 256;
+
+	private static final String CHARSET = "UTF-8";
+
+	// smaller responses are not worth compressing
+	private static final int MIN_COMPRESSED_SIZE = 1024;
+
+	private final LayoutService service;
+	private final HttpServer server;
+	private final ThreadPoolExecutor workers;
+
+	/**
+	 * @param port port to listen on, 0 for any free port
+	 */
+	public LayoutServer(LayoutService service, int port, int numThreads, int queueSize) throws IOException {
+		this.service = service;
+
+		this.workers = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.SECONDS,
+		                                      new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+
+			private int count = 0;
+
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "layout-worker-" + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+
+		// the handler only queues requests for the workers, on the dispatcher thread
+		server.createContext(LAYOUT_PATH, new LayoutHandler());
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		workers.shutdownNow();
+		service.shutdown();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private class LayoutHandler implements HttpHandler {
+
+		public void handle(final HttpExchange exchange) throws IOException {
+			if( !exchange.getRequestMethod().equals("GET") ) {
+				sendError(exchange, 405, "only GET is supported");
+				return;
+			}
+
+			try {
+				workers.execute(new Runnable() {
+
+					public void run() {
+						answer(exchange);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				Metrics.REJECTED_REQUESTS.increment();
+				sendError(exchange, 503, "busy");
+			}
+		}
+	}
+
+	private void answer(HttpExchange exchange) {
+		long startTime = System.nanoTime();
+
+		try {
+			Query query = Query.parse(exchange.getRequestURI().getRawQuery());
+
+			if( query == null ) {
+				sendError(exchange, 400, "chr, start and end are needed");
+				return;
+			}
+
+			byte[] body;
+
+			try {
+				body = service.layout(query.chr, query.start, query.end, query.types);
+			} catch (IllegalArgumentException e) {
+				sendError(exchange, 400, e.getMessage());
+				return;
+			}
+
+			send(exchange, body);
+
+			Metrics.LAYOUT_REQUEST_TIME.updateSince(startTime);
+		} catch (IOException e) {
+			// mostly clients going away
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			sendError(exchange, 500, "internal error");
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void send(HttpExchange exchange, byte[] body) throws IOException {
+		Headers headers = exchange.getResponseHeaders();
+		headers.set("Content-Type", "application/json; charset=" + CHARSET);
+
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		boolean compressed = body.length >= MIN_COMPRESSED_SIZE && acceptEncoding != null
+		                     && acceptEncoding.contains("gzip");
+
+		OutputStream out;
+
+		if( compressed ) {
+			headers.set("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, 0);
+			out = new GZIPOutputStream(exchange.getResponseBody());
+		} else {
+			exchange.sendResponseHeaders(200, body.length);
+			out = exchange.getResponseBody();
+		}
+
+		try {
+			out.write(body);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message) {
+		try {
+			byte[] body = (message + "\n").getBytes(CHARSET);
+
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=" + CHARSET);
+			exchange.sendResponseHeaders(status, body.length);
+
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static class Query {
+
+		String chr;
+		int start;
+		int end;
+		String[] types;
+
+		/*
+		 * Returns null if chr, start or end is missing or not a number. Types may be given
+		 * separated by commas, or in more than one types parameter.
+		 */
+		static Query parse(String rawQuery) throws IOException {
+			if( rawQuery == null ) {
+				return null;
+			}
+
+			Query query = new Query();
+			String start = null, end = null;
+			List<String> types = new ArrayList<String>();
+
+			for( String parameter : rawQuery.split("[;&]") ) {
+				int index = parameter.indexOf('=');
+
+				if( index < 0 ) {
+					continue;
+				}
+
+				String name = parameter.substring(0, index);
+				String value = URLDecoder.decode(parameter.substring(index + 1), CHARSET);
+
+				if( name.equals("chr") ) {
+					query.chr = value;
+				} else if( name.equals("start") ) {
+					start = value;
+				} else if( name.equals("end") ) {
+					end = value;
+				} else if( name.equals("types") || name.equals("type") ) {
+					for( String type : value.split(",") ) {
+						if( type.length() > 0 ) {
+							types.add(type);
+						}
+					}
+				}
+			}
+
+			if( query.chr == null || start == null || end == null ) {
+				return null;
+			}
+
+			try {
+				query.start = Integer.parseInt(start);
+				query.end = Integer.parseInt(end);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+
+			query.types = types.isEmpty() ? null : types.toArray(new String[types.size()]);
+
+			return query;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = DEFAULT_PORT;
+		int numThreads = Runtime.getRuntime().availableProcessors() * 2;
+		int queueSize = DEFAULT_QUEUE_SIZE;
+		int cachedTiles = LayoutService.DEFAULT_CACHED_TILES;
+		String spec = null;
+
+		for( int i = 0; i + 1 < args.length; i += 2 ) {
+			String option = args[i], value = args[i + 1];
+
+			if( option.equals("--port") ) {
+				port = Integer.parseInt(value);
+			} else if( option.equals("--threads") ) {
+				numThreads = Integer.parseInt(value);
+			} else if( option.equals("--queue") ) {
+				queueSize = Integer.parseInt(value);
+			} else if( option.equals("--tiles") ) {
+				cachedTiles = Integer.parseInt(value);
+			} else if( option.equals("--source") ) {
+				spec = value;
+			} else {
+				System.err.println("unknown option " + option);
+				System.err.println("options: --port N --threads N --queue N --tiles N"
+				                   + " --source das[:URL]|file:PATH|memory:PATH|synthetic:GENES");
+				System.exit(1);
+			}
+		}
+
+		CacheManager cache = CacheManager.getDefault();
+		FeatureSource source = spec == null ? FeatureSources.getDefault(cache) : FeatureSources.create(spec, cache);
+
+		LayoutServer server = new LayoutServer(new LayoutService(source, cache, cachedTiles), port, numThreads,
+		                                       queueSize);
+		server.start();
+
+		System.out.println("serving layouts of " + source.getName() + " at http://localhost:" + server.getPort()
+		                   + LAYOUT_PATH);
+	}
+}
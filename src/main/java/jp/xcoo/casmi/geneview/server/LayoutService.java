@@ -0,0 +1,260 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import jp.xcoo.casmi.geneview.cache.CacheManager;
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.metrics.Metrics;
+import jp.xcoo.casmi.geneview.net.GeneLoader;
+import jp.xcoo.casmi.geneview.source.FeatureSource;
+import jp.xcoo.casmi.geneview.source.FeatureSources;
+
+/**
+ * computes the gene layout of GeneView for regions as JSON
+ *
+ * Regions are loaded in tiles of GeneLoader.TILE_SIZE base pairs by a GeneLoader per
+ * set of types, reading through the feature cache. The features of each tile are
+ * copied out of the loader's store with its interval index and the most recently used
+ * tiles are kept in memory; a tile is kept once it has been loaded for all types, as
+ * its features do not change afterwards. Each region is laid out from the features
+ * of the tiles covering it (see RegionLayout), so the answer does not depend on which
+ * regions were requested before.
+ *
+ * At most MAX_LOADERS loaders are kept, least recently used ones are dropped, and a
+ * loader holding more than MAX_LOADER_FEATURES features is replaced by a new one.
+ */
+public class LayoutService {
+
+	public static final int DEFAULT_CACHED_TILES = 4096;
+
+	// longest region answered, to bound the work of one request
+	public static final int MAX_REGION_LENGTH = 10 * 1000 * 1000;
+
+	// loaders kept at once, each for one set of types
+	public static final int MAX_LOADERS = 8;
+
+	// features a loader may hold before it is replaced, bounding its store and symbols
+	public static final int MAX_LOADER_FEATURES = 1000 * 1000;
+
+	private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_.]{1,64}");
+
+	private final FeatureSource source;
+	private final CacheManager cache;
+
+	// types of requests which name none
+	private final String[] defaultTypes;
+
+	// loaders by types, least recently used first
+	private final Map<String, GeneLoader> loaders;
+
+	// features by types, chromosome and tile, least recently used first
+	private final Map<String, TileFeatures> tiles;
+
+	public LayoutService(FeatureSource source, CacheManager cache, final int maxCachedTiles) {
+		this.source = source;
+		this.cache = cache;
+		this.defaultTypes = FeatureSources.getDefaultTypes(source);
+
+		// the same loader as for requests naming the types in any order
+		Arrays.sort(defaultTypes);
+
+		// dropped loaders are not shut down, as requests may still use them; their
+		// threads end when idle
+		this.loaders = new LinkedHashMap<String, GeneLoader>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, GeneLoader> eldest) {
+				return size() > MAX_LOADERS;
+			}
+		};
+
+		this.tiles = new LinkedHashMap<String, TileFeatures>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, TileFeatures> eldest) {
+				return size() > maxCachedTiles;
+			}
+		};
+	}
+
+	/**
+	 * Returns the layout of the genes intersecting [start, end] (1-based, inclusive) as
+	 * UTF-8 JSON in the format of RegionLayout, loading the region first if needed.
+	 *
+	 * @param types annotation types, or null for the default types of the source (see FeatureSources)
+	 * @throws IllegalArgumentException if the region or a type is not valid
+	 */
+	public byte[] layout(String chr, int start, int end, String[] types) {
+		if( chr == null || !NAME_PATTERN.matcher(chr).matches() ) {
+			throw new IllegalArgumentException("invalid chromosome " + chr);
+		}
+
+		if( start < 1 || end < start || end - start >= MAX_REGION_LENGTH ) {
+			throw new IllegalArgumentException("invalid region " + start + "-" + end + ", at most "
+			                                   + MAX_REGION_LENGTH + " base pairs from 1 on are served");
+		}
+
+		types = normalizeTypes(types, defaultTypes);
+
+		final String typesKey = join(types);
+		final int first = GeneLoader.tileIndex(start);
+		final int last = GeneLoader.tileIndex(end);
+
+		TileFeatures[] found = new TileFeatures[last - first + 1];
+		int firstMissing = -1, lastMissing = -1;
+
+		synchronized (tiles) {
+			for( int tile = first; tile <= last; tile++ ) {
+				found[tile - first] = tiles.get(tileKey(typesKey, chr, tile));
+
+				if( found[tile - first] != null ) {
+					Metrics.LAYOUT_TILE_HITS.increment();
+				} else {
+					if( firstMissing < 0 ) {
+						firstMissing = tile;
+					}
+					lastMissing = tile;
+				}
+			}
+		}
+
+		if( firstMissing >= 0 ) {
+			loadTiles(typesKey, types, chr, firstMissing, lastMissing, first, found);
+		}
+
+		List<Exon> features = new ArrayList<Exon>();
+
+		for( TileFeatures t : found ) {
+			features.addAll(t.getFeatures());
+		}
+
+		return RegionLayout.layout(chr, start, end, features);
+	}
+
+	public int getNumCachedTiles() {
+		synchronized (tiles) {
+			return tiles.size();
+		}
+	}
+
+	/**
+	 * Stop the loaders.
+	 */
+	public void shutdown() {
+		synchronized (loaders) {
+			for( GeneLoader loader : loaders.values() ) {
+				loader.shutdown();
+			}
+		}
+	}
+
+	/*
+	 * Load tiles [firstMissing, lastMissing] and fill the missing ones of found, which
+	 * starts at tile first. Tiles loaded for all types are cached.
+	 */
+	private void loadTiles(String typesKey, String[] types, String chr, int firstMissing, int lastMissing, int first,
+	                       TileFeatures[] found) {
+		GeneLoader loader = getLoader(typesKey, types);
+
+		loader.loadRegion(chr, GeneLoader.tileStart(firstMissing), GeneLoader.tileEnd(lastMissing));
+
+		// the store is appended to holding the loader's lock, and its index is updated lazily
+		synchronized (loader) {
+			for( int tile = firstMissing; tile <= lastMissing; tile++ ) {
+				if( found[tile - first] != null ) {
+					continue;
+				}
+
+				Metrics.LAYOUT_TILE_MISSES.increment();
+
+				found[tile - first] = TileFeatures.create(loader.getFeatureStore(), chr, GeneLoader.tileStart(tile),
+				                                          GeneLoader.tileEnd(tile), loader.isTileLoaded(chr, tile));
+			}
+		}
+
+		synchronized (tiles) {
+			for( int tile = firstMissing; tile <= lastMissing; tile++ ) {
+				if( found[tile - first].isComplete() ) {
+					tiles.put(tileKey(typesKey, chr, tile), found[tile - first]);
+				}
+			}
+		}
+	}
+
+	private GeneLoader getLoader(String typesKey, String[] types) {
+		synchronized (loaders) {
+			GeneLoader loader = loaders.get(typesKey);
+
+			if( loader == null || loader.getFeatureStore().size() > MAX_LOADER_FEATURES ) {
+				loader = new GeneLoader(source, types, cache);
+				loaders.put(typesKey, loader);
+			}
+
+			return loader;
+		}
+	}
+
+	private static String tileKey(String typesKey, String chr, int tile) {
+		return typesKey + "|" + chr + ":" + tile;
+	}
+
+	private static String[] normalizeTypes(String[] types, String[] defaultTypes) {
+		if( types == null || types.length == 0 ) {
+			return defaultTypes.clone();
+		}
+
+		types = types.clone();
+
+		for( String type : types ) {
+			if( !NAME_PATTERN.matcher(type).matches() ) {
+				throw new IllegalArgumentException("invalid type " + type);
+			}
+		}
+
+		// the same loader for any order of the types
+		Arrays.sort(types);
+
+		return types;
+	}
+
+	private static String join(String[] types) {
+		StringBuilder sb = new StringBuilder();
+
+		for( String type : types ) {
+			if( sb.length() > 0 ) {
+				sb.append(',');
+			}
+
+			sb.append(type);
+		}
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.server;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.FeatureStore;
+import jp.xcoo.casmi.geneview.data.Gene;
+import jp.xcoo.casmi.geneview.data.SymbolTable;
+import jp.xcoo.casmi.geneview.data.type.GeneOrientaion;
+import jp.xcoo.casmi.geneview.layout.GeneAssembler;
+import jp.xcoo.casmi.geneview.layout.LaneLayout;
+import jp.xcoo.casmi.geneview.parse.DASXMLWriter;
+
+/**
+ * layout of the genes intersecting a region as JSON
+ *
+ * Genes are assembled from the given features only and packed into lanes with
+ * LaneLayout, so the layout of a region depends on nothing but its features. A region
+ * is encoded as
+ * <pre>
+ * {"chr":"1","start":500000,"end":900000,"genes":[...],"lanes":{"plus":3,"minus":2}}
+ * </pre>
+ * with the number of lanes used on each strand, and a gene as
+ * <pre>
+ * {"name":"NM_001005484","type":"refGene","strand":"+","lane":1,"start":69091,"end":70008,
+ *  "exons":[[69091,70008]]}
+ * </pre>
+ * where lane is the gene order of GeneView: 1, 2, ... above the scale for the plus
+ * strand, -1, -2, ... below it for the minus strand and 0 for an unknown strand.
+ * Positions are 1-based and inclusive.
+ */
+class RegionLayout {
+
+	private static final String CHARSET = "UTF-8";
+
+	private static final Comparator<Gene> LEFT_COMPARATOR = new Comparator<Gene>() {
+
+		public int compare(Gene g1, Gene g2) {
+			return g1.getLeft() < g2.getLeft() ? -1 : (g1.getLeft() == g2.getLeft() ? 0 : 1);
+		}
+	};
+
+	private RegionLayout() {
+	}
+
+	/**
+	 * Lay out the genes intersecting [start, end] (1-based, inclusive) built from features
+	 * of a chromosome, and encode them as UTF-8 JSON. Features given more than once are
+	 * used once; genes are written in order of their left ends, and in order of
+	 * their first features on ties.
+	 */
+	static byte[] layout(String chr, int start, int end, List<Exon> features) {
+		FeatureStore store = new FeatureStore(new SymbolTable());
+
+		for( Exon e : features ) {
+			store.add(e);
+		}
+
+		List<Gene> genes = new ArrayList<Gene>();
+
+		for( Gene g : GeneAssembler.assemble(store) ) {
+			if( g.getRight() >= start && g.getLeft() <= end ) {
+				genes.add(g);
+			}
+		}
+
+		LaneLayout.layout(genes);
+		Collections.sort(genes, LEFT_COMPARATOR);
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"chr\":");
+		appendString(sb, chr);
+		sb.append(",\"start\":").append(start).append(",\"end\":").append(end).append(",\"genes\":[");
+
+		int plusLanes = 0, minusLanes = 0;
+
+		for( int i = 0; i < genes.size(); i++ ) {
+			Gene g = genes.get(i);
+
+			if( i > 0 ) {
+				sb.append(',');
+			}
+
+			appendGene(sb, g, store);
+
+			plusLanes = Math.max(plusLanes, g.getOrder());
+			minusLanes = Math.max(minusLanes, -g.getOrder());
+		}
+
+		sb.append("],\"lanes\":{\"plus\":").append(plusLanes).append(",\"minus\":").append(minusLanes).append("}}");
+
+		return encode(sb);
+	}
+
+	private static void appendGene(StringBuilder sb, Gene g, FeatureStore store) {
+		sb.append("{\"name\":");
+		appendString(sb, g.getGroup());
+		sb.append(",\"type\":");
+		appendString(sb, DASXMLWriter.typeName(g.getType()));
+		sb.append(",\"strand\":\"").append(strand(g.getOrientation())).append('"');
+		sb.append(",\"lane\":").append(g.getOrder());
+		sb.append(",\"start\":").append(g.getLeft());
+		sb.append(",\"end\":").append(g.getRight());
+		sb.append(",\"exons\":[");
+
+		for( int i = 0; i < g.getNumExons(); i++ ) {
+			int index = g.getExonIndex(i);
+			int start = store.getStart(index), end = store.getEnd(index);
+
+			if( i > 0 ) {
+				sb.append(',');
+			}
+
+			sb.append('[').append(Math.min(start, end)).append(',').append(Math.max(start, end)).append(']');
+		}
+
+		sb.append("]}");
+	}
+
+	private static String strand(GeneOrientaion orientation) {
+		switch( orientation ) {
+		case OrientationPlus:
+			return "+";
+		case OrientationMinus:
+			return "-";
+		default:
+			return ".";
+		}
+	}
+
+	private static void appendString(StringBuilder sb, String s) {
+		if( s == null ) {
+			sb.append("null");
+			return;
+		}
+
+		sb.append('"');
+
+		for( int i = 0; i < s.length(); i++ ) {
+			char c = s.charAt(i);
+
+			switch( c ) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			default:
+				if( c < 0x20 ) {
+					sb.append(String.format("\\u%04x", (int)c));
+				} else {
+					sb.append(c);
+				}
+				break;
+			}
+		}
+
+		sb.append('"');
+	}
+
+	private static byte[] encode(CharSequence s) {
+		try {
+			return s.toString().getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			// every Java platform supports UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+}
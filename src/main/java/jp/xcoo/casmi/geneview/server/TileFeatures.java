@@ -0,0 +1,114 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.FeatureStore;
+
+/**
+ * features intersecting one tile, copied out of the store of a loader
+ *
+ * Every feature intersecting a tile arrives with the tile, so the features of a tile
+ * loaded for all types never change afterwards. Copies carry no ids of the loader's
+ * SymbolTable, so they can be kept after the loader is dropped. Features are sorted
+ * by their positions and ids, whatever order they were loaded in.
+ */
+class TileFeatures {
+
+	private static final Comparator<Exon> POSITION_COMPARATOR = new Comparator<Exon>() {
+
+		public int compare(Exon e1, Exon e2) {
+			int c = compare(left(e1), left(e2));
+
+			if( c == 0 ) {
+				c = compare(right(e1), right(e2));
+			}
+
+			if( c == 0 ) {
+				c = compare(e1.getStart(), e2.getStart());
+			}
+
+			if( c == 0 ) {
+				c = e1.getID() == null ? (e2.getID() == null ? 0 : -1)
+				                       : (e2.getID() == null ? 1 : e1.getID().compareTo(e2.getID()));
+			}
+
+			return c;
+		}
+
+		private int compare(int a, int b) {
+			return a < b ? -1 : (a == b ? 0 : 1);
+		}
+	};
+
+	private final List<Exon> features;
+	private final boolean complete;
+
+	private TileFeatures(List<Exon> features, boolean complete) {
+		this.features = features;
+		this.complete = complete;
+	}
+
+	/**
+	 * Copy the features of a store intersecting [start, end] on a chromosome.
+	 *
+	 * @param complete whether the tile has been loaded for all types
+	 */
+	static TileFeatures create(FeatureStore store, String chr, int start, int end, boolean complete) {
+		int[] indices = store.findOverlapping(chr, start, end);
+
+		List<Exon> features = new ArrayList<Exon>(indices.length);
+
+		for( int index : indices ) {
+			Exon e = store.getExon(index);
+			e.setChrID(-1);
+			e.setGroupID(-1);
+			e.setOrder(0);
+			features.add(e);
+		}
+
+		Collections.sort(features, POSITION_COMPARATOR);
+
+		return new TileFeatures(Collections.unmodifiableList(features), complete);
+	}
+
+	List<Exon> getFeatures() {
+		return features;
+	}
+
+	/**
+	 * Returns true if the tile was loaded for all types, so that the features are final.
+	 */
+	boolean isComplete() {
+		return complete;
+	}
+
+	private static int left(Exon e) {
+		return Math.min(e.getStart(), e.getEnd());
+	}
+
+	private static int right(Exon e) {
+		return Math.max(e.getStart(), e.getEnd());
+	}
+}
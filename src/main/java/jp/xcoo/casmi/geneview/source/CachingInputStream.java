@@ -0,0 +1,97 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.source;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * input stream copying every byte read to an output stream
+ *
+ * Used for writing the cache file while the response is being parsed.
+ */
+class CachingInputStream extends FilterInputStream {
+
+	private final OutputStream out;
+	private long count = 0;
+
+	CachingInputStream(InputStream in, OutputStream out) {
+		super(in);
+		this.out = out;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+
+		if( b >= 0 ) {
+			out.write(b);
+			count++;
+		}
+
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+
+		if( n > 0 ) {
+			out.write(b, off, n);
+			count += n;
+		}
+
+		return n;
+	}
+
+	/**
+	 * Returns the number of bytes copied so far.
+	 */
+	long getCount() {
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if( n <= 0 ) {
+			return 0;
+		}
+
+		// skipped bytes have to reach the cache too
+		byte[] buf = new byte[(int)Math.min(n, 8192)];
+		int read = read(buf, 0, buf.length);
+		return read < 0 ? 0 : read;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			out.close();
+		}
+	}
+}
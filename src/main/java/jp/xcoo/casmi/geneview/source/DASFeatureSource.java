@@ -0,0 +1,473 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.source;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import jp.xcoo.casmi.geneview.cache.CacheManager;
+import jp.xcoo.casmi.geneview.cache.Compression;
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.SymbolTable;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+import jp.xcoo.casmi.geneview.metrics.Metrics;
+import jp.xcoo.casmi.geneview.parse.FeatureHandler;
+import jp.xcoo.casmi.geneview.parse.GeneStreamParser;
+import jp.xcoo.casmi.geneview.parse.GeneXMLParser;
+import casmi.io.Reader;
+import casmi.io.exception.ParserException;
+import casmi.io.net.HTTP;
+import casmi.io.parser.XML;
+
+/**
+ * feature source reading the features command of a DAS server
+ *
+ * Responses are parsed while they are downloaded (StAX), or with the DOM parser of
+ * casmi when streaming is turned off; features of the DOM are then parsed in parallel.
+ *
+ * Responses downloaded with the streaming parser are cached compressed if a compression
+ * is chosen, and compressed cache entries are always read with the streaming parser,
+ * decompressing them on the fly.
+ *
+ * Requests of the streaming parser accept gzip transfer encoding, decoded while parsing.
+ * Cached responses which expired are revalidated with a conditional request (ETag and
+ * Last-Modified), and read from the cache again if the server answers 304 Not Modified
+ * or can not be reached. Callers caching query results themselves revalidate them with
+ * queryIfModified(); with the DOM parser it always reads the whole response.
+ */
+public class DASFeatureSource implements FeatureSource {
+
+	public static final String UCSC_HG19_URL = "http://genome.ucsc.edu/cgi-bin/das/hg19/features";
+
+	private static final String XML_CACHE_EXTENSION = ".xml";
+
+	private static final String GZIP_ENCODING = "gzip";
+	private static final int BUFFER_SIZE = 8192;
+
+	private final String dasURL;
+	private final CacheManager cache;
+
+	private volatile boolean streaming = true;
+	private volatile Compression cacheCompression = null;
+
+	public DASFeatureSource(String dasURL) {
+		this(dasURL, null);
+	}
+
+	/**
+	 * @param cache cache for whole responses read by fetch(), or null
+	 */
+	public DASFeatureSource(String dasURL, CacheManager cache) {
+		this.dasURL = dasURL;
+		this.cache = cache;
+	}
+
+	public String getName() {
+		return dasURL;
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Select the streaming (StAX) parser or the DOM parser of casmi.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Returns the compression of cache entries written, or null to use the compression of the cache manager.
+	 */
+	public Compression getCacheCompression() {
+		return cacheCompression;
+	}
+
+	public void setCacheCompression(Compression cacheCompression) {
+		this.cacheCompression = cacheCompression;
+	}
+
+	public void query(String chr, int start, int end, String[] types, SymbolTable symbols, FeatureHandler handler)
+		throws IOException {
+		read(createSegmentURL(chr, start, end, types), null, symbols, handler);
+	}
+
+	public boolean queryIfModified(String chr, int start, int end, String[] types, SymbolTable symbols,
+	                               FeatureHandler handler, Validators validators) throws IOException {
+		final String url = createSegmentURL(chr, start, end, types);
+
+		// casmi does not tell the validators of a response
+		if( !streaming ) {
+			validators.setETag(null);
+			validators.setLastModified(0);
+
+			readFromServer(url, null, symbols, handler);
+			return true;
+		}
+
+		long startTime = System.nanoTime();
+		HttpURLConnection connection = connect(url, validators.getETag(), validators.getLastModified());
+
+		if( connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED ) {
+			connection.disconnect();
+			Metrics.DOWNLOAD_TIME.updateSince(startTime);
+			Metrics.NOT_MODIFIED.increment();
+			return false;
+		}
+
+		validators.setETag(connection.getHeaderField("ETag"));
+		validators.setLastModified(connection.getLastModified());
+
+		streamResponse(url, connection, startTime, null, symbols, handler);
+		return true;
+	}
+
+	/**
+	 * Read a whole DAS response, through the XML cache if this source has a cache.
+	 */
+	public void fetch(String url, SymbolTable symbols, FeatureHandler handler) throws IOException {
+		if( cache == null ) {
+			read(url, null, symbols, handler);
+			return;
+		}
+
+		final String cacheName = CacheManager.createKey(url) + XML_CACHE_EXTENSION;
+
+		if( cache.isExpired(cacheName) && revalidate(url, cacheName, symbols, handler) ) {
+			return;
+		}
+
+		// casmi parses whole files only, so compressed entries are streamed even for the DOM parser
+		if( !streaming && cache.getCompression(cacheName) == Compression.NONE ) {
+			File cacheFile = cache.lookup(cacheName);
+
+			if( cacheFile == null ) {
+				read(url, cacheName, symbols, handler);
+				return;
+			}
+
+			try {
+				readFromCache(cacheFile, symbols, handler);
+			} catch (IOException e) {
+				cache.invalidate(cacheName);
+				throw e;
+			}
+			return;
+		}
+
+		InputStream in;
+
+		try {
+			in = cache.openEntry(cacheName);
+		} catch (IOException e) {
+			cache.invalidate(cacheName);
+			throw e;
+		}
+
+		if( in == null ) {
+			read(url, cacheName, symbols, handler);
+			return;
+		}
+
+		try {
+			streamFromCache(in, symbols, handler);
+		} catch (IOException e) {
+			cache.invalidate(cacheName);
+			throw e;
+		}
+	}
+
+	public String createSegmentURL(String chr, int start, int end, String[] types) {
+		StringBuilder sb = new StringBuilder(dasURL);
+
+		sb.append("?segment=").append(chr).append(':').append(start).append(',').append(end).append(';');
+
+		for( String type : types ) {
+			sb.append("type=").append(type).append(';');
+		}
+
+		return sb.toString();
+	}
+
+	/*
+	 * Ask the server whether an expired cache entry changed. A changed response is read
+	 * (and cached) right away; otherwise the entry is kept to be read by the caller.
+	 *
+	 * @return true if the response has been read
+	 */
+	private boolean revalidate(String url, String cacheName, SymbolTable symbols, FeatureHandler handler)
+		throws IOException {
+		long startTime = System.nanoTime();
+		HttpURLConnection connection;
+
+		try {
+			connection = connect(url, cache.getETag(cacheName), cache.getLastModified(cacheName));
+		} catch (IOException e) {
+			// keep using the expired entry while the server can not be reached
+			System.err.println("can not revalidate " + url + ": " + e.getMessage());
+			return false;
+		}
+
+		if( connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED ) {
+			connection.disconnect();
+			Metrics.DOWNLOAD_TIME.updateSince(startTime);
+			Metrics.NOT_MODIFIED.increment();
+
+			cache.revalidate(cacheName);
+			return false;
+		}
+
+		streamResponse(url, connection, startTime, cacheName, symbols, handler);
+		return true;
+	}
+
+	private void read(String url, String cacheName, SymbolTable symbols, FeatureHandler handler) throws IOException {
+		if( streaming ) {
+			streamFromServer(url, cacheName, symbols, handler);
+		} else {
+			readFromServer(url, cacheName, symbols, handler);
+		}
+	}
+
+	/*
+	 * Read RefGene Data from a (decompressed) cache entry without building a DOM
+	 */
+	private static void streamFromCache(InputStream in, SymbolTable symbols, FeatureHandler handler) throws IOException {
+		long startTime = System.nanoTime();
+
+		try {
+			new GeneStreamParser(symbols).parse(in, handler);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			closeQuietly(in);
+		}
+
+		Metrics.PARSE_TIME.updateSince(startTime);
+	}
+
+	/*
+	 * Read RefGene Data from DAS server, parsing (and caching if cacheName is not null)
+	 * the response while it is downloaded
+	 */
+	private void streamFromServer(String url, String cacheName, SymbolTable symbols, FeatureHandler handler)
+		throws IOException {
+		long startTime = System.nanoTime();
+
+		streamResponse(url, connect(url, null, 0), startTime, cacheName, symbols, handler);
+	}
+
+	/*
+	 * Send a GET request accepting gzip, conditional if an entity tag or a modification
+	 * time is given. Fails unless the server answers 200 OK or 304 Not Modified.
+	 */
+	private static HttpURLConnection connect(String url, String etag, long lastModified) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection)new URL(url).openConnection();
+		connection.setRequestMethod("GET");
+		connection.setRequestProperty("Accept-Encoding", GZIP_ENCODING);
+
+		if( etag != null ) {
+			connection.setRequestProperty("If-None-Match", etag);
+		}
+
+		if( lastModified > 0 ) {
+			connection.setIfModifiedSince(lastModified);
+		}
+
+		try {
+			int code = connection.getResponseCode();
+
+			if( code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_NOT_MODIFIED ) {
+				throw new IOException("Server returned HTTP response code: " + code + " for URL: " + url);
+			}
+		} catch (IOException e) {
+			connection.disconnect();
+			throw e;
+		}
+
+		return connection;
+	}
+
+	/*
+	 * Parse (and cache if cacheName is not null) a response while it is downloaded,
+	 * decoding gzip transfer encoding.
+	 */
+	private void streamResponse(String url, HttpURLConnection connection, long startTime, String cacheName,
+	                            SymbolTable symbols, FeatureHandler handler) throws IOException {
+		File partFile = null;
+
+		// validators of the response, to revalidate the cache entry with
+		String etag = connection.getHeaderField("ETag");
+		long lastModified = connection.getLastModified();
+
+		InputStream in = null;
+		CachingInputStream caching = null;
+		Compression compression = Compression.NONE;
+		boolean completed = false;
+
+		try {
+			in = new CountingInputStream(connection.getInputStream(), Metrics.DOWNLOADED_BYTES);
+
+			if( GZIP_ENCODING.equalsIgnoreCase(connection.getContentEncoding()) ) {
+				in = new GZIPInputStream(in, BUFFER_SIZE);
+			}
+
+			in = new BufferedInputStream(in);
+
+			if( cacheName != null ) {
+				compression = cacheCompression != null ? cacheCompression : cache.getCompression();
+				partFile = cache.createTemporaryFile(cacheName);
+				OutputStream out = compression.compress(new FileOutputStream(partFile));
+				caching = new CachingInputStream(in, new BufferedOutputStream(out));
+				in = caching;
+			}
+
+			long parseStartTime = System.nanoTime();
+			new GeneStreamParser(symbols).parse(in, handler);
+			Metrics.PARSE_TIME.updateSince(parseStartTime);
+
+			// copy whatever follows the root element so that the cache is complete
+			byte[] buf = new byte[BUFFER_SIZE];
+			while( in.read(buf) >= 0 ) {
+			}
+
+			completed = true;
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			closeQuietly(in);
+			connection.disconnect();
+
+			Metrics.DOWNLOAD_TIME.updateSince(startTime);
+
+			if( partFile != null ) {
+				if( completed ) {
+					cache.commit(partFile, cacheName, url, compression, caching.getCount(), etag, lastModified);
+				} else {
+					cache.abort(partFile);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Read RefGene Data from cache
+	 */
+	private static void readFromCache(File cacheFile, SymbolTable symbols, FeatureHandler handler) throws IOException {
+		XML xml = new XML();
+		GeneXMLParser parser = new GeneXMLParser(symbols, GeneXMLParser.getDefaultPool());
+
+		long startTime = System.nanoTime();
+
+		try {
+			xml.parseFile(cacheFile);
+		} catch (ParserException e) {
+			throw new IOException(e);
+		}
+
+		parser.parse(xml);
+		Metrics.PARSE_TIME.updateSince(startTime);
+
+		forward(parser, handler);
+	}
+
+	/*
+	 * Read RefGene Data to connect DAS server using type=refGene
+	 */
+	private void readFromServer(String url, String cacheName, SymbolTable symbols, FeatureHandler handler)
+		throws IOException {
+		XML xml = new XML();
+		GeneXMLParser parser = new GeneXMLParser(symbols, GeneXMLParser.getDefaultPool());
+
+		long startTime = System.nanoTime();
+
+		HTTP http = new HTTP(url);
+		Reader reader = http.requestGet();
+
+		try {
+			xml.parseReader(reader);
+		} catch (ParserException e) {
+			throw new IOException(e);
+		} finally {
+			http.disconnect();
+			reader.close();
+
+			Metrics.DOWNLOAD_TIME.updateSince(startTime);
+		}
+
+		// casmi saves documents to files only, so entries written here are not compressed; nor
+		// does it tell the validators of the response, so they are revalidated unconditionally
+		if( cacheName != null ) {
+			File temporaryFile = null;
+
+			try {
+				temporaryFile = cache.createTemporaryFile(cacheName);
+				xml.save(temporaryFile);
+				cache.commit(temporaryFile, cacheName, url);
+			} catch (IOException e) {
+				e.printStackTrace();
+				cache.abort(temporaryFile);
+			}
+		}
+
+		long parseStartTime = System.nanoTime();
+		parser.parse(xml);
+		Metrics.PARSE_TIME.updateSince(parseStartTime);
+
+		forward(parser, handler);
+	}
+
+	private static void forward(GeneXMLParser parser, FeatureHandler handler) {
+		if( parser.getViewScales() != null ) {
+			for( ViewScale segment : parser.getViewScales() ) {
+				handler.onSegment(segment);
+			}
+		}
+
+		if( parser.getExons() != null ) {
+			for( Exon e : parser.getExons() ) {
+				handler.onExon(e);
+			}
+		}
+	}
+
+	private static void closeQuietly(Closeable c) {
+		if( c == null ) {
+			return;
+		}
+
+		try {
+			c.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,438 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.source;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import jp.xcoo.casmi.geneview.cache.FeatureCacheFile;
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+import jp.xcoo.casmi.geneview.data.type.GeneOrientaion;
+import jp.xcoo.casmi.geneview.data.type.GeneType;
+import jp.xcoo.casmi.geneview.parse.DASXMLWriter;
+
+/**
+ * generator of synthetic gene annotations for scaling tests
+ *
+ * Genes are spread over the chromosomes in proportion to their lengths, starting at
+ * uniformly random positions. The mean gene span is chosen so that each base is covered
+ * by the given overlap density of genes on average. The number of exons per gene follows
+ * a geometric distribution between a minimum and a maximum, and a fraction of the genes
+ * can be piled up into clusters starting within CLUSTER_SPREAD bases of each other.
+ * The same settings and seed always give the same features.
+ *
+ * <pre>
+ * java jp.xcoo.casmi.geneview.source.FeatureGenerator --genes 20000 --out hg19-synthetic.xml
+ * </pre>
+ */
+public class FeatureGenerator {
+
+	public static final long DEFAULT_SEED = 20110101L;
+
+	// approximate lengths of hg19 chromosomes in megabases
+	public static final String[] HG19_CHROMOSOMES = {
+		"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12",
+		"13", "14", "15", "16", "17", "18", "19", "20", "21", "22", "X", "Y"
+	};
+	public static final int[] HG19_CHROMOSOME_MEGABASES = {
+		249, 243, 198, 191, 181, 171, 159, 146, 141, 136, 135, 134,
+		115, 107, 103, 90, 81, 78, 59, 63, 48, 51, 155, 59
+	};
+
+	private static final int MIN_EXON_LENGTH = 50;
+	private static final int MAX_EXON_LENGTH = 450;
+	private static final int MIN_INTRON_LENGTH = 20;
+
+	private static final int CLUSTER_SPREAD = 1000;
+
+	private static final String REF = "http://localhost/";
+	private static final String DAS_HREF = "http://localhost/das/hg19/features";
+
+	private long seed = DEFAULT_SEED;
+	private int numGenes = 20000;
+
+	private String[] chromosomes = HG19_CHROMOSOMES;
+	private int[] lengths = megabases(HG19_CHROMOSOME_MEGABASES);
+
+	private int minExons = 1, meanExons = 8, maxExons = 60;
+	private double overlap = 0.5;
+	private double clusterFraction = 0.0;
+	private int clusterSize = 1;
+
+	// normalized weights of plus, minus and unknown orientation
+	private double[] strandMix = weights(1.0, 1.0, 0.0);
+
+	// normalized weights of KNOWN, REFERENCE_SEQUENCE and OTHER
+	private double[] typeMix = weights(1.0, 1.0, 0.0);
+
+	public FeatureGenerator() {
+	}
+
+	public FeatureGenerator(long seed, int numGenes) {
+		this.seed = seed;
+		this.numGenes = numGenes;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setNumGenes(int numGenes) {
+		this.numGenes = numGenes;
+	}
+
+	/**
+	 * Set chromosome names and their lengths in bases.
+	 */
+	public void setChromosomes(String[] chromosomes, int[] lengths) {
+		if( chromosomes.length != lengths.length || chromosomes.length == 0 ) {
+			throw new IllegalArgumentException("one length for each chromosome is needed");
+		}
+
+		this.chromosomes = chromosomes.clone();
+		this.lengths = lengths.clone();
+	}
+
+	/**
+	 * Set the distribution of exons per gene: geometric with the given mean, bounded
+	 * by min and max.
+	 */
+	public void setExonsPerGene(int min, int mean, int max) {
+		if( min < 1 || mean < min || max < mean ) {
+			throw new IllegalArgumentException("1 <= min <= mean <= max is needed");
+		}
+
+		this.minExons = min;
+		this.meanExons = mean;
+		this.maxExons = max;
+	}
+
+	/**
+	 * Set the mean number of genes covering a base. Values above 1 make genes overlap
+	 * almost everywhere.
+	 */
+	public void setOverlap(double overlap) {
+		if( overlap <= 0.0 ) {
+			throw new IllegalArgumentException("overlap must be positive");
+		}
+
+		this.overlap = overlap;
+	}
+
+	/**
+	 * Pile a fraction of the genes up into clusters of the given size.
+	 */
+	public void setClusters(double fraction, int size) {
+		if( fraction < 0.0 || fraction > 1.0 || size < 1 ) {
+			throw new IllegalArgumentException("fraction in [0, 1] and a positive size are needed");
+		}
+
+		this.clusterFraction = fraction;
+		this.clusterSize = size;
+	}
+
+	/**
+	 * Set relative weights of plus, minus and unknown orientation.
+	 */
+	public void setStrandMix(double plus, double minus, double unknown) {
+		this.strandMix = weights(plus, minus, unknown);
+	}
+
+	/**
+	 * Set relative weights of knownGene, refGene and other types.
+	 */
+	public void setTypeMix(double known, double refSeq, double other) {
+		this.typeMix = weights(known, refSeq, other);
+	}
+
+	public String getName() {
+		return "synthetic:" + numGenes + ":" + seed;
+	}
+
+	/**
+	 * Generate exons, chromosome by chromosome and ordered by gene start.
+	 */
+	public List<Exon> generate() {
+		Random random = new Random(seed);
+		List<Exon> exons = new ArrayList<Exon>();
+
+		long totalLength = 0;
+
+		for( int length : lengths ) {
+			totalLength += length;
+		}
+
+		int remainingGenes = numGenes;
+		long remainingLength = totalLength;
+
+		for( int c = 0; c < chromosomes.length; c++ ) {
+			int genes = (int)Math.round((double)remainingGenes * lengths[c] / remainingLength);
+
+			generate(random, chromosomes[c], lengths[c], genes, exons);
+
+			remainingGenes -= genes;
+			remainingLength -= lengths[c];
+		}
+
+		return exons;
+	}
+
+	/**
+	 * Generate features into a memory source.
+	 */
+	public MemoryFeatureSource createSource() {
+		return new MemoryFeatureSource(getName(), generate());
+	}
+
+	/**
+	 * Write features as a DAS features document with a segment per chromosome.
+	 */
+	public void writeDocument(Writer out) throws IOException {
+		List<Exon> exons = generate();
+
+		DASXMLWriter das = new DASXMLWriter(out);
+		das.startDocument(DAS_HREF);
+
+		int i = 0;
+
+		for( int c = 0; c < chromosomes.length; c++ ) {
+			das.startSegment(new ViewScale(chromosomes[c], 1, lengths[c]));
+
+			while( i < exons.size() && exons.get(i).getChr().equals(chromosomes[c]) ) {
+				das.writeFeature(exons.get(i++));
+			}
+
+			das.endSegment();
+		}
+
+		das.endDocument();
+		out.flush();
+	}
+
+	/**
+	 * Write features to a file, as a binary feature cache file if its name ends with
+	 * FeatureCacheFile.FILE_EXTENSION and as a DAS features document otherwise.
+	 */
+	public void write(File file) throws IOException {
+		if( file.getName().toLowerCase(Locale.ENGLISH).endsWith(FeatureCacheFile.FILE_EXTENSION) ) {
+			FeatureCacheFile.write(file, new ViewScale(chromosomes[0], 1, lengths[0]), generate());
+			return;
+		}
+
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+
+		try {
+			writeDocument(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void generate(Random random, String chr, int length, int genes, List<Exon> exons) {
+		if( genes <= 0 ) {
+			return;
+		}
+
+		final double meanSpan = Math.max(1.0, overlap * length / genes);
+		final int maxStart = Math.max(1, length - (int)Math.min(meanSpan, length / 2));
+
+		int[] starts = new int[genes];
+
+		for( int n = 0; n < genes; n++ ) {
+			starts[n] = 1 + random.nextInt(maxStart);
+		}
+
+		Arrays.sort(starts);
+
+		// clusters take the genes following their first gene
+		if( clusterSize > 1 && clusterFraction > 0.0 ) {
+			double probability = clusterFraction / clusterSize;
+
+			for( int n = 0; n < genes; n++ ) {
+				if( random.nextDouble() < probability ) {
+					int last = Math.min(genes, n + clusterSize);
+
+					for( int m = n + 1; m < last; m++ ) {
+						starts[m] = Math.min(maxStart, starts[n] + random.nextInt(CLUSTER_SPREAD));
+					}
+
+					n = last - 1;
+				}
+			}
+
+			Arrays.sort(starts);
+		}
+
+		for( int n = 0; n < genes; n++ ) {
+			generateGene(random, chr, length, n, starts[n], meanSpan, exons);
+		}
+	}
+
+	private void generateGene(Random random, String chr, int length, int n, int start, double meanSpan,
+	                          List<Exon> exons) {
+		GeneType type = pick(random, typeMix, GeneType.KNOWN, GeneType.REFERENCE_SEQUENCE, GeneType.OTHER);
+		GeneOrientaion orientation = pick(random, strandMix, GeneOrientaion.OrientationPlus,
+		                                  GeneOrientaion.OrientationMinus, GeneOrientaion.OrientationUnknown);
+
+		String group = groupPrefix(type) + chr + "_" + n;
+
+		int numExons = numExons(random);
+		int[] exonLengths = new int[numExons];
+		int exonTotal = 0;
+
+		for( int i = 0; i < numExons; i++ ) {
+			exonLengths[i] = MIN_EXON_LENGTH + random.nextInt(MAX_EXON_LENGTH - MIN_EXON_LENGTH);
+			exonTotal += exonLengths[i];
+		}
+
+		// span uniformly in [0.5, 1.5) of the mean, the rest of it divided among introns
+		double span = meanSpan * (0.5 + random.nextDouble());
+		double meanIntron = numExons > 1 ? Math.max(0.0, span - exonTotal) / (numExons - 1) : 0.0;
+
+		int exonStart = start;
+
+		for( int i = 0; i < numExons && exonStart <= length; i++ ) {
+			int exonEnd = Math.min(length, exonStart + exonLengths[i] - 1);
+
+			exons.add(new Exon(group + "." + i, chr, exonStart, exonEnd, orientation, REF + group, group, type));
+
+			int intron = MIN_INTRON_LENGTH + (int)(meanIntron * (0.5 + random.nextDouble()));
+			exonStart = exonEnd + 1 + intron;
+		}
+	}
+
+	private int numExons(Random random) {
+		if( meanExons == minExons ) {
+			return minExons;
+		}
+
+		// geometric with success probability p has mean (1 - p) / p
+		double p = 1.0 / (meanExons - minExons + 1);
+		double u = 1.0 - random.nextDouble();
+		int n = minExons + (int)(Math.log(u) / Math.log(1.0 - p));
+
+		return Math.min(maxExons, n);
+	}
+
+	private static String groupPrefix(GeneType type) {
+		switch( type ) {
+		case KNOWN:
+			return "uc";
+		case REFERENCE_SEQUENCE:
+			return "NM_";
+		default:
+			return "other";
+		}
+	}
+
+	private static <T> T pick(Random random, double[] weights, T first, T second, T third) {
+		double r = random.nextDouble();
+
+		if( r < weights[0] ) {
+			return first;
+		}
+
+		return r < weights[0] + weights[1] ? second : third;
+	}
+
+	private static double[] weights(double a, double b, double c) {
+		double sum = a + b + c;
+
+		if( a < 0.0 || b < 0.0 || c < 0.0 || sum <= 0.0 ) {
+			throw new IllegalArgumentException("weights must be non-negative and not all zero");
+		}
+
+		return new double[] {a / sum, b / sum, c / sum};
+	}
+
+	private static int[] megabases(int[] megabases) {
+		int[] lengths = new int[megabases.length];
+
+		for( int i = 0; i < megabases.length; i++ ) {
+			lengths[i] = megabases[i] * 1000000;
+		}
+
+		return lengths;
+	}
+
+	private static double[] ratios(String value) {
+		String[] parts = value.split(":");
+		double[] ratios = new double[3];
+
+		for( int i = 0; i < parts.length && i < 3; i++ ) {
+			ratios[i] = Double.parseDouble(parts[i]);
+		}
+
+		return ratios;
+	}
+
+	public static void main(String[] args) throws IOException {
+		FeatureGenerator generator = new FeatureGenerator();
+		File out = null;
+
+		for( int i = 0; i + 1 < args.length; i += 2 ) {
+			String option = args[i], value = args[i + 1];
+
+			if( option.equals("--out") ) {
+				out = new File(value);
+			} else if( option.equals("--seed") ) {
+				generator.setSeed(Long.parseLong(value));
+			} else if( option.equals("--genes") ) {
+				generator.setNumGenes(Integer.parseInt(value));
+			} else if( option.equals("--exons") ) {
+				String[] parts = value.split(":");
+				generator.setExonsPerGene(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+				                          Integer.parseInt(parts[2]));
+			} else if( option.equals("--overlap") ) {
+				generator.setOverlap(Double.parseDouble(value));
+			} else if( option.equals("--clusters") ) {
+				String[] parts = value.split(":");
+				generator.setClusters(Double.parseDouble(parts[0]), Integer.parseInt(parts[1]));
+			} else if( option.equals("--strands") ) {
+				double[] mix = ratios(value);
+				generator.setStrandMix(mix[0], mix[1], mix[2]);
+			} else if( option.equals("--types") ) {
+				double[] mix = ratios(value);
+				generator.setTypeMix(mix[0], mix[1], mix[2]);
+			} else {
+				out = null;
+				break;
+			}
+		}
+
+		if( out == null ) {
+			System.err.println("options: --out FILE(.xml|.gvc) --seed N --genes N --exons MIN:MEAN:MAX"
+			                   + " --overlap GENES_PER_BASE --clusters FRACTION:SIZE"
+			                   + " --strands PLUS:MINUS:UNKNOWN --types KNOWN:REFSEQ:OTHER");
+			System.exit(1);
+		}
+
+		generator.write(out);
+	}
+}
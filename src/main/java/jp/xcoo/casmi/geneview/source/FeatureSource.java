@@ -0,0 +1,59 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.source;
+
+import java.io.IOException;
+
+import jp.xcoo.casmi.geneview.data.SymbolTable;
+import jp.xcoo.casmi.geneview.parse.FeatureHandler;
+
+/**
+ * source of gene features (exons), such as a DAS server or a local annotation file
+ *
+ * Sources may be queried from several threads at once.
+ */
+public interface FeatureSource {
+
+	/**
+	 * Returns a name identifying the data of this source, used as a part of cache keys.
+	 */
+	String getName();
+
+	/**
+	 * Pass features of the given types intersecting the region [start, end] (1-based,
+	 * inclusive) of a chromosome to the handler.
+	 *
+	 * @param symbols table to assign case folded chromosome and group ids from, or null
+	 * @throws IOException if the features could not be read completely
+	 */
+	void query(String chr, int start, int end, String[] types, SymbolTable symbols, FeatureHandler handler)
+		throws IOException;
+
+	/**
+	 * Query features unless they did not change since a response with the given
+	 * validators was read. Sources which can not tell always query, and clear the
+	 * validators.
+	 *
+	 * @param validators validators of the cached response; set to those of the new response
+	 * @return false if the features did not change; nothing is passed to the handler then
+	 * @throws IOException if the features could not be read completely
+	 */
+	boolean queryIfModified(String chr, int start, int end, String[] types, SymbolTable symbols,
+	                        FeatureHandler handler, Validators validators) throws IOException;
+}
@@ -0,0 +1,130 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.source;
+
+import java.io.File;
+import java.io.IOException;
+
+import jp.xcoo.casmi.geneview.cache.CacheManager;
+
+/**
+ * creates feature sources from specifications such as "das", "das:URL", "file:PATH",
+ * "memory:PATH" and "synthetic:GENES[:SEED]"
+ *
+ * "file:" reads the file on the first query, "memory:" reads it right away.
+ * "synthetic:" generates genes with FeatureGenerator and its default settings. The
+ * default source is given by the system property geneview.source, the UCSC DAS server
+ * if it is not set.
+ *
+ * The annotation types loaded by default are given by the system property geneview.types
+ * (separated by commas). If it is not set, all types a file or memory source holds are
+ * loaded, as a BED file names its type after the track or file; refGene and knownGene
+ * are loaded from a DAS server.
+ */
+public class FeatureSources {
+
+	public static final String SOURCE_PROPERTY = "geneview.source";
+	public static final String TYPES_PROPERTY = "geneview.types";
+
+	public static final String[] DAS_TYPES = {"refGene", "knownGene"};
+
+	private static final String DAS_SCHEME = "das";
+	private static final String FILE_SCHEME = "file";
+	private static final String MEMORY_SCHEME = "memory";
+	private static final String SYNTHETIC_SCHEME = "synthetic";
+
+	private FeatureSources() {
+	}
+
+	public static FeatureSource getDefault(CacheManager cache) {
+		return create(System.getProperty(SOURCE_PROPERTY, DAS_SCHEME), cache);
+	}
+
+	/**
+	 * Returns the annotation types to load from a source by default.
+	 */
+	public static String[] getDefaultTypes(FeatureSource source) {
+		String property = System.getProperty(TYPES_PROPERTY);
+
+		if( property != null && property.trim().length() > 0 ) {
+			return property.trim().split("\\s*,\\s*");
+		}
+
+		try {
+			if( source instanceof MemoryFeatureSource ) {
+				return ((MemoryFeatureSource)source).getTypes();
+			}
+
+			if( source instanceof FileFeatureSource ) {
+				return ((FileFeatureSource)source).getTypes();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("can not read types of " + source.getName());
+		}
+
+		return DAS_TYPES.clone();
+	}
+
+	/**
+	 * Create a feature source.
+	 *
+	 * @param cache cache for whole DAS responses, or null
+	 * @throws IllegalArgumentException if the specification is not valid
+	 */
+	public static FeatureSource create(String spec, CacheManager cache) {
+		int index = spec.indexOf(':');
+
+		String scheme = index < 0 ? spec : spec.substring(0, index);
+		String argument = index < 0 ? null : spec.substring(index + 1);
+
+		if( scheme.equals(DAS_SCHEME) ) {
+			return new DASFeatureSource(argument == null ? DASFeatureSource.UCSC_HG19_URL : argument, cache);
+		}
+
+		if( argument == null ) {
+			throw new IllegalArgumentException("no argument is given for feature source " + spec);
+		}
+
+		if( scheme.equals(FILE_SCHEME) ) {
+			return new FileFeatureSource(new File(argument));
+		}
+
+		if( scheme.equals(MEMORY_SCHEME) ) {
+			try {
+				return FileFeatureSource.read(new File(argument));
+			} catch (IOException e) {
+				throw new IllegalArgumentException("can not read feature source " + spec, e);
+			}
+		}
+
+		if( scheme.equals(SYNTHETIC_SCHEME) ) {
+			String[] parts = argument.split(":");
+
+			try {
+				long seed = parts.length > 1 ? Long.parseLong(parts[1]) : FeatureGenerator.DEFAULT_SEED;
+				return new FeatureGenerator(seed, Integer.parseInt(parts[0])).createSource();
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("invalid feature source " + spec, e);
+			}
+		}
+
+		throw new IllegalArgumentException("unknown feature source " + spec);
+	}
+}
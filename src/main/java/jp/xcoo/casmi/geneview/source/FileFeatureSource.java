@@ -0,0 +1,126 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.source;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+import javax.xml.stream.XMLStreamException;
+
+import jp.xcoo.casmi.geneview.cache.FeatureCacheFile;
+import jp.xcoo.casmi.geneview.data.SymbolTable;
+import jp.xcoo.casmi.geneview.parse.BEDParser;
+import jp.xcoo.casmi.geneview.parse.FeatureCollector;
+import jp.xcoo.casmi.geneview.parse.FeatureHandler;
+import jp.xcoo.casmi.geneview.parse.GeneStreamParser;
+
+/**
+ * feature source reading a local annotation file, such as a mirrored DAS response
+ *
+ * Files ending with ".bed" are read as BED, with the file name (without extension) as
+ * the feature type; files ending with ".gvc" as a binary feature cache file and any
+ * other file as a DAS features document. The file is read once, on the first query,
+ * and queries are answered from memory afterwards.
+ */
+public class FileFeatureSource implements FeatureSource {
+
+	private static final String BED_EXTENSION = ".bed";
+
+	private final File file;
+
+	private MemoryFeatureSource features = null;
+
+	public FileFeatureSource(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Read a file into a memory feature source right away.
+	 */
+	public static MemoryFeatureSource read(File file) throws IOException {
+		FeatureCollector collector = new FeatureCollector();
+
+		if( file.getName().toLowerCase(Locale.ENGLISH).endsWith(FeatureCacheFile.FILE_EXTENSION) ) {
+			FeatureCacheFile.read(file, collector);
+			return new MemoryFeatureSource(createName(file), collector.getExons());
+		}
+
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+
+		try {
+			String name = file.getName();
+
+			if( name.toLowerCase(Locale.ENGLISH).endsWith(BED_EXTENSION) ) {
+				new BEDParser().parse(in, name.substring(0, name.length() - BED_EXTENSION.length()), collector);
+			} else {
+				new GeneStreamParser().parse(in, collector);
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			in.close();
+		}
+
+		return new MemoryFeatureSource(createName(file), collector.getExons());
+	}
+
+	public String getName() {
+		return createName(file);
+	}
+
+	public void query(String chr, int start, int end, String[] types, SymbolTable symbols, FeatureHandler handler)
+		throws IOException {
+		load().query(chr, start, end, types, symbols, handler);
+	}
+
+	/**
+	 * Always queries; a changed file gets another name, so caches of an old file are
+	 * not revalidated anyway.
+	 */
+	public boolean queryIfModified(String chr, int start, int end, String[] types, SymbolTable symbols,
+	                               FeatureHandler handler, Validators validators) throws IOException {
+		return load().queryIfModified(chr, start, end, types, symbols, handler, validators);
+	}
+
+	/**
+	 * Returns the names of the types of the features in the file, reading it if needed.
+	 */
+	public String[] getTypes() throws IOException {
+		return load().getTypes();
+	}
+
+	private synchronized MemoryFeatureSource load() throws IOException {
+		if( features == null ) {
+			features = read(file);
+		}
+
+		return features;
+	}
+
+	/*
+	 * The modification time is a part of the name, so that caches of an old file are not used.
+	 */
+	private static String createName(File file) {
+		return file.toURI().toString() + "@" + file.lastModified();
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.source;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.SymbolTable;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+import jp.xcoo.casmi.geneview.parse.DASXMLWriter;
+import jp.xcoo.casmi.geneview.parse.FeatureHandler;
+
+/**
+ * feature source answering queries from features held in memory
+ *
+ * Chromosome names are matched case-insensitively and with or without a "chr" prefix;
+ * features are passed with the chromosome name of the query. Each query passes one
+ * segment covering the region and copies of the matching features, so results never
+ * depend on earlier queries.
+ *
+ * Types are matched case-insensitively by the name the features were read with (such
+ * as a BED track name), or by the DAS name of their GeneType if the name is not known.
+ */
+public class MemoryFeatureSource implements FeatureSource {
+
+	private static final String CHR_PREFIX = "chr";
+
+	private static final Comparator<Exon> LEFT_COMPARATOR = new Comparator<Exon>() {
+
+		public int compare(Exon e1, Exon e2) {
+			int l1 = left(e1), l2 = left(e2);
+			return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+		}
+	};
+
+	private final String name;
+	private final Map<String, Chromosome> chromosomes = new HashMap<String, Chromosome>();
+
+	// type names in order of first appearance, each in the case it first appeared in
+	private final String[] types;
+
+	public MemoryFeatureSource(String name, List<Exon> exons) {
+		this.name = name;
+
+		Map<String, List<Exon>> byChr = new HashMap<String, List<Exon>>();
+		Map<String, String> typeNames = new LinkedHashMap<String, String>();
+
+		for( Exon e : exons ) {
+			String typeKey = typeKey(e);
+
+			if( !typeNames.containsKey(typeKey) ) {
+				typeNames.put(typeKey, e.getTypeName() != null ? e.getTypeName() : DASXMLWriter.typeName(e.getType()));
+			}
+
+			String key = chromosomeKey(e.getChr());
+			List<Exon> list = byChr.get(key);
+
+			if( list == null ) {
+				list = new ArrayList<Exon>();
+				byChr.put(key, list);
+			}
+
+			list.add(e);
+		}
+
+		for( Map.Entry<String, List<Exon>> entry : byChr.entrySet() ) {
+			chromosomes.put(entry.getKey(), new Chromosome(entry.getValue()));
+		}
+
+		this.types = typeNames.values().toArray(new String[typeNames.size()]);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the names of the types of the features held.
+	 */
+	public String[] getTypes() {
+		return types.clone();
+	}
+
+	/**
+	 * Returns the number of features held.
+	 */
+	public int size() {
+		int size = 0;
+
+		for( Chromosome c : chromosomes.values() ) {
+			size += c.exons.length;
+		}
+
+		return size;
+	}
+
+	public void query(String chr, int start, int end, String[] types, SymbolTable symbols, FeatureHandler handler) {
+		handler.onSegment(new ViewScale(chr, start, end));
+
+		Chromosome c = chromosomes.get(chromosomeKey(chr));
+
+		if( c == null ) {
+			return;
+		}
+
+		Set<String> accepted = null;
+
+		if( types != null && types.length > 0 ) {
+			accepted = new HashSet<String>();
+
+			for( String type : types ) {
+				accepted.add(type.toLowerCase(Locale.ENGLISH));
+			}
+		}
+
+		final int chrID = symbols == null ? -1 : symbols.internFolded(chr);
+
+		// features starting before start - maxLength can not reach the region
+		int i = lowerBound(c.lefts, (int)Math.max(Integer.MIN_VALUE, (long)start - c.maxLength));
+
+		for( ; i < c.lefts.length && c.lefts[i] <= end; i++ ) {
+			Exon e = c.exons[i];
+
+			if( right(e) < start || (accepted != null && !accepted.contains(c.typeKeys[i])) ) {
+				continue;
+			}
+
+			Exon copy = new Exon(e.getID(), chr, e.getStart(), e.getEnd(), e.getOrientation(), e.getRef(),
+			                     e.getGroup(), e.getType());
+			copy.setTypeName(e.getTypeName());
+
+			if( symbols != null ) {
+				copy.setChrID(chrID);
+				copy.setGroupID(symbols.internFolded(e.getGroup()));
+			}
+
+			handler.onExon(copy);
+		}
+	}
+
+	/**
+	 * Always queries, as features in memory have no validators.
+	 */
+	public boolean queryIfModified(String chr, int start, int end, String[] types, SymbolTable symbols,
+	                               FeatureHandler handler, Validators validators) {
+		validators.setETag(null);
+		validators.setLastModified(0);
+
+		query(chr, start, end, types, symbols, handler);
+		return true;
+	}
+
+	private static String chromosomeKey(String chr) {
+		String key = chr.toLowerCase(Locale.ENGLISH);
+
+		return key.startsWith(CHR_PREFIX) ? key.substring(CHR_PREFIX.length()) : key;
+	}
+
+	/*
+	 * Returns the lower case type name of a feature.
+	 */
+	private static String typeKey(Exon e) {
+		String name = e.getTypeName() != null ? e.getTypeName() : DASXMLWriter.typeName(e.getType());
+
+		return name.toLowerCase(Locale.ENGLISH);
+	}
+
+	private static int left(Exon e) {
+		return Math.min(e.getStart(), e.getEnd());
+	}
+
+	private static int right(Exon e) {
+		return Math.max(e.getStart(), e.getEnd());
+	}
+
+	/*
+	 * Returns the first index whose value is not less than the key.
+	 */
+	private static int lowerBound(int[] values, int key) {
+		int low = 0, high = values.length;
+
+		while( low < high ) {
+			int mid = (low + high) >>> 1;
+
+			if( values[mid] < key ) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	private static class Chromosome {
+
+		final Exon[] exons;
+		final int[] lefts;
+		final String[] typeKeys;
+		final int maxLength;
+
+		Chromosome(List<Exon> list) {
+			Collections.sort(list, LEFT_COMPARATOR);
+
+			exons = list.toArray(new Exon[list.size()]);
+			lefts = new int[exons.length];
+			typeKeys = new String[exons.length];
+
+			int max = 0;
+			for( int i = 0; i < exons.length; i++ ) {
+				lefts[i] = left(exons[i]);
+				typeKeys[i] = typeKey(exons[i]).intern();
+				max = Math.max(max, right(exons[i]) - lefts[i]);
+			}
+
+			maxLength = max;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.source;
+
+/**
+ * HTTP validators (entity tag and last modification time) of a response
+ *
+ * Passed to a conditional query with the validators of a cached response, and set to
+ * those of the new response by the query.
+ */
+public class Validators {
+
+	private String etag;
+	private long lastModified;
+
+	public Validators() {
+		this(null, 0);
+	}
+
+	/**
+	 * @param etag entity tag, or null
+	 * @param lastModified last modification time, or 0 if unknown
+	 */
+	public Validators(String etag, long lastModified) {
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	public String getETag() {
+		return etag;
+	}
+
+	public void setETag(String etag) {
+		this.etag = etag;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.view;
+
+import casmi.graphics.color.RGBColor;
+import casmi.graphics.element.Rect;
+
+/**
+ * element for drawing number of genes in a bin
+ */
+public class DensityElement extends Rect {
+
+	private int count;
+
+	public DensityElement(double width, double height, int count) {
+		super(width, height);
+
+		this.setStroke(false);
+		double[] rgb = GeneScene.getDensityRGB();
+		this.setFillColor(new RGBColor(rgb[0], rgb[1], rgb[2]));
+
+		this.count = count;
+	}
+
+	public int getCount() {
+		return count;
+	}
+}
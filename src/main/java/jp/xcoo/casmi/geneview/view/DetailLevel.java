@@ -0,0 +1,47 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.view;
+
+/**
+ * level of detail of the gene canvas, chosen from the scale (pixels per base pair)
+ */
+public enum DetailLevel {
+
+	/** exons and introns of each gene */
+	EXON,
+
+	/** gene spans only */
+	GENE,
+
+	/** number of genes per bin and strand */
+	DENSITY;
+
+	private static final double EXON_MIN_SCALE = 0.002;
+	private static final double GENE_MIN_SCALE = 0.0002;
+
+	public static DetailLevel forScale(double scale) {
+		if( scale >= EXON_MIN_SCALE ) {
+			return EXON;
+		} else if( scale >= GENE_MIN_SCALE ) {
+			return GENE;
+		} else {
+			return DENSITY;
+		}
+	}
+}
@@ -20,7 +20,7 @@ package jp.xcoo.casmi.geneview.view;
 
 import jp.xcoo.casmi.geneview.data.Exon;
 import jp.xcoo.casmi.geneview.data.Gene;
-import casmi.graphics.color.ColorSet;
+import jp.xcoo.casmi.geneview.data.type.GeneType;
 import casmi.graphics.color.RGBColor;
 import casmi.graphics.element.Rect;
 
@@ -32,56 +32,41 @@ import casmi.graphics.element.Rect;
  */
 public class GeneElement extends Rect {
 
-	private static final double EXON_RECT_HEIGHT = 20;
-	private static final double GENE_RECT_HEIGHT = 8;
+	private static final double EXON_RECT_HEIGHT = GeneScene.EXON_HEIGHT;
+	private static final double GENE_RECT_HEIGHT = GeneScene.GENE_HEIGHT;
 
 	private String name;
 
 	private double measure;
 
-	private boolean selected = false;
+	private int left;
+	private int right;
 
 	public GeneElement(Exon e, double measure) {
 	    super(measure * e.getLength(), EXON_RECT_HEIGHT);
 
 	    this.setStroke(false);
-
-        switch( e.getType() ) {
-        case KNOWN:
-            this.setFillColor(new RGBColor(134/255.0, 186/255.0, 104/255.0));
-            break;
-        case REFERENCE_SEQUENCE:
-            this.setFillColor(new RGBColor(134/255.0, 186/255.0, 204/255.0));
-            break;
-        case OTHER:
-            this.setFillColor(ColorSet.WHITE);
-            break;
-        }
+	    this.setFillColor(createColor(e.getType()));
 
 		this.measure = measure;
 
 		this.name = "";
+
+		this.left = Math.min(e.getStart(), e.getEnd());
+		this.right = Math.max(e.getStart(), e.getEnd());
 	}
 
 	public GeneElement(Gene g, double measure){
 	    super(measure * g.getLength(), GENE_RECT_HEIGHT);
 
         this.setStroke(false);
-
-        switch( g.getType() ) {
-        case KNOWN:
-            this.setFillColor(new RGBColor(134/255.0, 186/255.0, 104/255.0));
-            break;
-        case REFERENCE_SEQUENCE:
-            this.setFillColor(new RGBColor(134/255.0, 186/255.0, 204/255.0));
-            break;
-        case OTHER:
-            this.setFillColor(ColorSet.WHITE);
-            break;
-        }
+        this.setFillColor(createColor(g.getType()));
 
 		this.measure = measure;
 		this.name = g.getGroup();
+
+		this.left = g.getLeft();
+		this.right = g.getRight();
 	}
 
 	public String getName() {
@@ -96,11 +81,22 @@ public class GeneElement extends Rect {
 		this.measure = measure;
 	}
 
-    public boolean isSelected() {
-        return selected;
+    /**
+     * Returns genomic position of the left end.
+     */
+    public int getLeft() {
+        return left;
+    }
+
+    /**
+     * Returns genomic position of the right end.
+     */
+    public int getRight() {
+        return right;
     }
 
-    public void setSelected(boolean selected) {
-        this.selected = selected;
+    private static RGBColor createColor(GeneType type) {
+        double[] rgb = GeneScene.getRGB(type);
+        return new RGBColor(rgb[0], rgb[1], rgb[2]);
     }
 }
@@ -0,0 +1,145 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.view;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.xcoo.casmi.geneview.data.Gene;
+
+/**
+ * finds the gene at a genomic position in a lane
+ *
+ * Genes are indexed per order (lane) in arrays sorted by left end, with the running
+ * maximum of right ends, so a lookup is a binary search. Lanes can be replaced one by
+ * one as the layout changes.
+ */
+public class GeneHitTester {
+
+	private static final Comparator<Gene> LEFT_COMPARATOR = new Comparator<Gene>() {
+
+		public int compare(Gene g1, Gene g2) {
+			if( g1.getLeft() != g2.getLeft() ) {
+				return g1.getLeft() < g2.getLeft() ? -1 : 1;
+			}
+
+			return 0;
+		}
+	};
+
+	private final Map<Integer, Lane> lanes = new HashMap<Integer, Lane>();
+
+	public GeneHitTester(List<Gene> genes) {
+		Map<Integer, List<Gene>> genesByOrder = new HashMap<Integer, List<Gene>>();
+
+		for( Gene g : genes ) {
+			List<Gene> list = genesByOrder.get(g.getOrder());
+
+			if( list == null ) {
+				list = new ArrayList<Gene>();
+				genesByOrder.put(g.getOrder(), list);
+			}
+
+			list.add(g);
+		}
+
+		for( Map.Entry<Integer, List<Gene>> entry : genesByOrder.entrySet() ) {
+			lanes.put(entry.getKey(), new Lane(entry.getValue()));
+		}
+	}
+
+	/**
+	 * Replace the genes of an order.
+	 */
+	public void setLane(int order, Collection<Gene> genes) {
+		if( genes.isEmpty() ) {
+			lanes.remove(order);
+		} else {
+			lanes.put(order, new Lane(new ArrayList<Gene>(genes)));
+		}
+	}
+
+	/**
+	 * Returns a gene of the order covering the position, or null.
+	 */
+	public Gene find(int order, double position) {
+		Lane lane = lanes.get(order);
+
+		if( lane == null ) {
+			return null;
+		}
+
+		return lane.find(position);
+	}
+
+	private static class Lane {
+
+		private final Gene[] genes;
+		private final int[] lefts;
+		private final int[] rights;
+		private final int[] maxRights;
+
+		Lane(List<Gene> list) {
+			Collections.sort(list, LEFT_COMPARATOR);
+
+			final int n = list.size();
+
+			genes = list.toArray(new Gene[n]);
+			lefts = new int[n];
+			rights = new int[n];
+			maxRights = new int[n];
+
+			for( int i = 0; i < n; i++ ) {
+				lefts[i] = genes[i].getLeft();
+				rights[i] = genes[i].getRight();
+				maxRights[i] = i == 0 ? rights[i] : Math.max(maxRights[i - 1], rights[i]);
+			}
+		}
+
+		Gene find(double position) {
+			// last gene starting at or before the position
+			int low = 0, high = lefts.length;
+
+			while( low < high ) {
+				int mid = (low + high) >>> 1;
+
+				if( lefts[mid] <= position ) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+
+			// genes in a lane do not overlap, so this loop ends after one step
+			// unless genes of unknown orientation share order 0
+			for( int i = low - 1; i >= 0 && maxRights[i] >= position; i-- ) {
+				if( rights[i] >= position ) {
+					return genes[i];
+				}
+			}
+
+			return null;
+		}
+	}
+}
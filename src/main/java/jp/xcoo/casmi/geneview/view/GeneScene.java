@@ -0,0 +1,199 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.view;
+
+import java.util.List;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.Gene;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+import jp.xcoo.casmi.geneview.data.type.GeneType;
+import jp.xcoo.casmi.geneview.layout.GeneDensity;
+
+/**
+ * geometry of the gene and scale canvases, shared by GeneView and SnapshotRenderer
+ *
+ * The gene scene is laid out in base pairs relative to the center of the view, with
+ * lanes (gene orders) GENE_ORDER_STEP apart; it is zoomed to pixels by its canvas.
+ * The scale scene is laid out in pixels. Neither depends on casmi, so that scenes can
+ * be built without a display.
+ */
+public class GeneScene {
+
+	public static final double GENE_ORDER_STEP = 30;
+
+	public static final double EXON_HEIGHT = 20;
+	public static final double GENE_HEIGHT = 8;
+
+	public static final double DENSITY_BIN_PIXELS = 4;
+	public static final double DENSITY_MAX_HEIGHT = 90;
+
+	public static final double SCALE_HEIGHT = 20;
+	public static final double HALF_SCALE_HEIGHT = SCALE_HEIGHT / 2;
+
+	private static final double MIN_SCALE_TICK_PIXELS = 50;
+
+	private static final double[] KNOWN_RGB = {134/255.0, 186/255.0, 104/255.0};
+	private static final double[] REFERENCE_SEQUENCE_RGB = {134/255.0, 186/255.0, 204/255.0};
+	private static final double[] OTHER_RGB = {1.0, 1.0, 1.0};
+	private static final double[] DENSITY_RGB = {160/255.0, 160/255.0, 160/255.0};
+
+	private GeneScene() {
+	}
+
+	/**
+	 * Returns red, green and blue (0 to 1) of exons and genes of a type.
+	 */
+	public static double[] getRGB(GeneType type) {
+		switch( type ) {
+		case KNOWN:
+			return KNOWN_RGB.clone();
+		case REFERENCE_SEQUENCE:
+			return REFERENCE_SEQUENCE_RGB.clone();
+		default:
+			return OTHER_RGB.clone();
+		}
+	}
+
+	/**
+	 * Returns red, green and blue (0 to 1) of density bars.
+	 */
+	public static double[] getDensityRGB() {
+		return DENSITY_RGB.clone();
+	}
+
+	/**
+	 * Size of a density bin in base pairs, a power of two covering at least DENSITY_BIN_PIXELS.
+	 */
+	public static int getDensityBinSize(double scale) {
+		int binSize = 1;
+
+		while( binSize * scale < DENSITY_BIN_PIXELS && binSize < (1 << 30) ) {
+			binSize <<= 1;
+		}
+
+		return binSize;
+	}
+
+	public static double getCenter(ViewScale viewScale) {
+		return viewScale.getStart() + viewScale.getLength() / 2.0;
+	}
+
+	/**
+	 * Build the gene scene of a level of detail. Density bars cover range, the part of
+	 * the loaded range to be shown, which may be null.
+	 */
+	public static void buildGenes(SceneSink sink, List<Gene> genes, List<Exon> exons, int densityBinSize,
+	                              ViewScale viewScale, ViewScale range, DetailLevel level) {
+		switch( level ) {
+		case EXON:
+			addExons(sink, exons, viewScale);
+			addGenes(sink, genes, viewScale);
+			break;
+		case GENE:
+			addGenes(sink, genes, viewScale);
+			break;
+		case DENSITY:
+			addDensity(sink, genes, densityBinSize, viewScale, range);
+			break;
+		}
+	}
+
+	private static void addExons(SceneSink sink, List<Exon> exons, ViewScale viewScale) {
+		for( Exon e: exons ){
+			double x = (e.getEnd() + e.getStart()) / 2.0 - viewScale.getStart() - viewScale.getLength() / 2.0;
+			double y = GENE_ORDER_STEP * e.getOrder();
+
+			sink.addExon(e, x, y);
+		}
+	}
+
+	private static void addGenes(SceneSink sink, List<Gene> genes, ViewScale viewScale) {
+		for( Gene g: genes ){
+			double x = (g.getEnd() + g.getStart())/2.0 - viewScale.getStart() - viewScale.getLength() / 2.0;
+			double y = GENE_ORDER_STEP * g.getOrder();
+
+			sink.addGene(g, x, y);
+		}
+	}
+
+	/*
+	 * Add bars of the number of genes per bin, plus strand above and minus strand below the scale.
+	 */
+	private static void addDensity(SceneSink sink, List<Gene> genes, int binSize, ViewScale viewScale,
+	                               ViewScale range) {
+		if( range == null ) {
+			return;
+		}
+
+		final int numBins = range.getLength() / binSize + 1;
+
+		GeneDensity density = GeneDensity.count(genes, range.getStart(), binSize, numBins);
+
+		final double maxCount = Math.max(1, density.getMaxCount());
+		final double width = binSize;
+		final double center = getCenter(viewScale);
+
+		for( int strand = GeneDensity.PLUS_STRAND; strand <= GeneDensity.MINUS_STRAND; strand++ ) {
+			final double sign = strand == GeneDensity.PLUS_STRAND ? 1.0 : -1.0;
+
+			for( int bin = 0; bin < numBins; bin++ ) {
+				int count = density.getCount(strand, bin);
+
+				if( count == 0 ) {
+					continue;
+				}
+
+				double height = DENSITY_MAX_HEIGHT * count / maxCount;
+
+				double x = range.getStart() + (bin + 0.5) * binSize - center;
+				double y = sign * (HALF_SCALE_HEIGHT + height / 2.0);
+
+				int binStart = range.getStart() + bin * binSize;
+				sink.addDensity(count, x, y, width, height, binStart, binStart + binSize - 1);
+			}
+		}
+	}
+
+	/**
+	 * Build the scale of range at a scale (pixels per base pair), placed relative to the
+	 * center of viewScale. Nothing is built if range is null.
+	 */
+	public static void buildScale(SceneSink sink, double scale, ViewScale range, ViewScale viewScale) {
+		if( range == null ) {
+			return;
+		}
+
+		final double center = getCenter(viewScale);
+		final double step = Math.pow(10, Math.ceil(Math.log10(MIN_SCALE_TICK_PIXELS / scale)));
+		final double first = Math.ceil(range.getStart() / step) * step;
+		final int numScales = (int) ((range.getStop() - first) / step) + 1;
+
+		for( int i=0; i<numScales; i++ ) {
+			final int position = (int)(i * step + first);
+			final double x = (position - center) * scale;
+
+			sink.addLine(x, HALF_SCALE_HEIGHT, x, - HALF_SCALE_HEIGHT, position, position);
+			sink.addText(Integer.toString(position), (int) x, (int) -SCALE_HEIGHT, position, position);
+		}
+
+		sink.addLine((range.getStart() - center) * scale, 0, (range.getStop() - center) * scale, 0,
+		             range.getStart(), range.getStop());
+	}
+}
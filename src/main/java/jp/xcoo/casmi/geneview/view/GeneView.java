@@ -21,23 +21,24 @@ package jp.xcoo.casmi.geneview.view;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.FeatureStore;
 import jp.xcoo.casmi.geneview.data.Gene;
 import jp.xcoo.casmi.geneview.data.ViewScale;
+import jp.xcoo.casmi.geneview.metrics.Metrics;
 import jp.xcoo.casmi.geneview.net.GeneLoader;
+import jp.xcoo.casmi.geneview.net.TilePrefetcher;
 import casmi.Applet;
 import casmi.AppletRunner;
 import casmi.CursorMode;
 import casmi.KeyEvent;
 import casmi.MouseButton;
 import casmi.MouseStatus;
-import casmi.callback.MouseOverCallback;
-import casmi.callback.MouseOverEventType;
 import casmi.graphics.canvas.Canvas;
 import casmi.graphics.color.ColorSet;
-import casmi.graphics.element.Element;
 import casmi.graphics.element.Line;
 import casmi.graphics.element.Text;
 import casmi.graphics.font.Font;
@@ -49,15 +50,19 @@ import casmi.graphics.font.Font;
  */
 public class GeneView extends Applet
 {
-	private static final String REMOTE_DATA_URL = "http://genome.ucsc.edu/cgi-bin/das/hg19/features?segment=1:500000,900000;type=refGene;type=knownGene;";
+	private static final String INITIAL_CHR = "1";
+	private static final int INITIAL_START = 500000;
+	private static final int INITIAL_END = 900000;
 
-	private static final double MIN_SCALE = 0.005;
-	private static final double SCALE_STEP = 0.0001;
+	private static final double MIN_SCALE = 0.00001;
+	private static final double SCALE_FACTOR_STEP = 1.01;
 
-	private static final double GENE_ELEMENT_ORDER_STEP = 30;
+	private static final double GENE_ELEMENT_ORDER_STEP = GeneScene.GENE_ORDER_STEP;
 
-	private static final double SCALE_HEIGHT = 20;
-	private static final double HALF_SCALE_HEIGHT = SCALE_HEIGHT / 2;
+
+	private static final double CULLING_MARGIN_PIXELS = 256;
+
+	private static final double HIT_TEST_HALF_HEIGHT = 10;
 
 	private static final int MOUSE_SCALING_THRESHOLD = 10;
 
@@ -65,10 +70,19 @@ public class GeneView extends Applet
 	private static final double MOUSE_SCROLL_SPEED_FACTOR = 10.0;
 	private static final double SCROLL_SPEED_DAMPING_FACTOR = 0.8;
 
+	private static final int PREFETCH_THREADS = 2;
+
 	private static final String TITLE = "Gene View";
 	private static final double FPS = 20.0;
 
 	private double scale = 0.01;
+	private DetailLevel detailLevel = DetailLevel.forScale(scale);
+	private int densityBinSize = GeneScene.getDensityBinSize(scale);
+
+	// scale and genomic range the scale canvas was built for
+	private double scaleCanvasScale;
+	private int scaleCanvasStart;
+	private int scaleCanvasEnd;
 
 	private double scroll = 0.0;
 	private double scrollSpeed = 0.0;
@@ -79,8 +93,9 @@ public class GeneView extends Applet
     private String annotation = "Annotation";
     private Text annotationText;
 
-	private List<Gene> genes;
-	private List<Exon> exons;
+	private GeneLoader loader;
+	private TilePrefetcher prefetcher;
+	private int loadedRevision;
 	private ViewScale viewScale;
 
 	private static int WIDTH = 1024;
@@ -89,25 +104,39 @@ public class GeneView extends Applet
 	private Canvas geneCanvas;
 	private Canvas scaleCanvas;
 
+	// density bars, and exons and genes per lane
+	private ViewportCuller geneCuller;
+	private LaneCanvas laneCanvas;
+	private ViewportCuller scaleCuller;
+
+	// System.nanoTime() at the start of the last update(), 0 before the first one
+	private long lastUpdateTime = 0;
+
 	@Override
 	public void setup() {
 
-		// load gene info
-	    GeneLoader loader = new GeneLoader();
-		loader.load(REMOTE_DATA_URL);
+		// load gene info around the initial region, which is also the origin of the view
+	    loader = new GeneLoader();
+		loader.loadRegion(INITIAL_CHR, INITIAL_START, INITIAL_END);
 
-		genes = loader.getGenes();
-		exons = loader.getExons();
-		viewScale = loader.getViewScale();
+		prefetcher = new TilePrefetcher(loader, PREFETCH_THREADS);
+
+		viewScale = new ViewScale(INITIAL_CHR, INITIAL_START, INITIAL_END);
 
 		setFPS(FPS);
 		setSize(WIDTH, HEIGHT);
 
-		geneCanvas = createGeneCanvas(genes, exons, scale, viewScale, geneElements);
+		geneCanvas = new Canvas();
+		geneCuller = new ViewportCuller(geneCanvas);
+		laneCanvas = new LaneCanvas(geneCanvas, viewScale);
+		loadedRevision = updateGeneCanvas();
 		geneCanvas.setPosition(WIDTH / 2.0, HEIGHT / 3.0);
+		geneCanvas.setScaleX(scale);
 		addCanvas(geneCanvas);
 
-        scaleCanvas = createScaleCanvas(scale, viewScale);
+        scaleCanvas = new Canvas();
+        scaleCuller = new ViewportCuller(scaleCanvas);
+        updateScaleCanvas();
         scaleCanvas.setPosition(WIDTH / 2.0, HEIGHT / 3.0);
         addCanvas(scaleCanvas);
 
@@ -138,6 +167,13 @@ public class GeneView extends Applet
 
 	@Override
     public void update() {
+		final long startTime = System.nanoTime();
+
+		if( lastUpdateTime != 0 ) {
+		    Metrics.FRAME_TIME.update((startTime - lastUpdateTime) / 1000);
+		}
+		lastUpdateTime = startTime;
+
 		// scrolling
 		scroll += scrollSpeed / FPS;
 
@@ -146,116 +182,246 @@ public class GeneView extends Applet
 		    scrollSpeed = 0.0;
 		}
 
+		// load tiles in view and ahead of the scrolling direction in background
+		prefetcher.update(viewScale.getChr(), getVisibleStart(), getVisibleEnd(), -scrollSpeed / scale);
+
+		// gene elements are in base pairs and zoomed by the canvas, so they are rebuilt
+		// only for new data or when the level of detail (or the density bin) changes
+		final DetailLevel level = DetailLevel.forScale(scale);
+		final int binSize = GeneScene.getDensityBinSize(scale);
+
+		if( loader.getRevision() != loadedRevision || level != detailLevel
+		    || (level == DetailLevel.DENSITY && binSize != densityBinSize) ) {
+		    if( loader.getRevision() != loadedRevision ) {
+		        // the loaded range may have grown
+		        scaleCanvasScale = 0.0;
+		    }
+
+		    detailLevel = level;
+		    densityBinSize = binSize;
+
+		    final long buildStartTime = System.nanoTime();
+		    loadedRevision = updateGeneCanvas();
+		    Metrics.CANVAS_BUILD_TIME.updateSince(buildStartTime);
+		}
+
+		updateScaleCanvas();
+
+		geneCanvas.setScaleX(scale);
 		geneCanvas.setX(scroll);
 		scaleCanvas.setX(scroll);
 
-		GeneElement selected = null;
+		// attach only elements around the visible range
+		final int margin = (int) (CULLING_MARGIN_PIXELS / scale);
+		geneCuller.update(getVisibleStart() - margin, getVisibleEnd() + margin);
+		laneCanvas.cull(getVisibleStart() - margin, getVisibleEnd() + margin);
+		scaleCuller.update(getVisibleStart() - margin, getVisibleEnd() + margin);
 
-        for (GeneElement e : geneElements) {
-            if (e.isSelected()) {
-                selected = e;
-            }
-        }
+		Gene selected = findGene(getMouseX(), getMouseY());
 
         if (selected != null) {
+            double x = ((selected.getEnd() + selected.getStart()) / 2.0 - getCenter(viewScale)) * scale;
+            double y = GENE_ELEMENT_ORDER_STEP * selected.getOrder();
+
             setCursor(CursorMode.HAND);
-            annotationText.setText(selected.getName());
-            annotationText.setPosition(selected.getX() + scroll, selected.getY() + HEIGHT / 3.0);
+            annotationText.setText(selected.getGroup());
+            annotationText.setPosition(x + scroll, y + HEIGHT / 3.0);
         } else {
             setCursor(CursorMode.DEFAULT);
             annotationText.setText("");
         }
+
+        Metrics.CANVAS_ELEMENTS.set(geneCuller.getNumElements() + laneCanvas.getNumElements()
+                                    + scaleCuller.getNumElements());
+        Metrics.ATTACHED_ELEMENTS.set(geneCuller.getNumAttached() + laneCanvas.getNumAttached()
+                                      + scaleCuller.getNumAttached());
+        Metrics.UPDATE_TIME.updateSince(startTime);
 	}
 
     @Override
     public void exit() {
+        prefetcher.shutdown();
+        loader.shutdown();
     }
 
-	private static Canvas createGeneCanvas(List<Gene> genes, List<Exon> exons,
-	                                       double scale, ViewScale viewScale,
-	                                       List<GeneElement> elements){
-	    Canvas canvas = new Canvas();
+    /*
+     * Find the gene drawn at a point of the window, or null.
+     */
+    private Gene findGene(double mouseX, double mouseY) {
+        if( detailLevel == DetailLevel.DENSITY ) {
+            return null;
+        }
 
-	    elements.clear();
+        final double y = mouseY - HEIGHT / 3.0;
+        final int order = (int) Math.round(y / GENE_ELEMENT_ORDER_STEP);
 
-    	for( Exon e: exons ){
-    		GeneElement ge = new GeneElement(e, scale);
+        if( Math.abs(y - order * GENE_ELEMENT_ORDER_STEP) > HIT_TEST_HALF_HEIGHT ) {
+            return null;
+        }
+
+        return laneCanvas.find(order, getCenter(viewScale) + (mouseX - scroll) / scale);
+    }
 
-    		double x = ((e.getEnd() + e.getStart()) / 2.0 - viewScale.getStart() - viewScale.getLength() / 2.0) * scale;
-    		double y = GENE_ELEMENT_ORDER_STEP * e.getOrder();
+    /*
+     * Update gene elements to the loaded genes and the current level of detail, and
+     * return the revision they were taken at. Density bars are built again as a whole;
+     * exons and genes only for the lanes whose genes changed.
+     */
+    private int updateGeneCanvas() {
+        final List<Gene> genes;
+        final FeatureStore store;
+        final ViewScale loaded;
+        final int revision;
+
+        synchronized (loader) {
+            genes = loader.getGenes();
+            store = loader.getFeatureStore();
+            loaded = loader.getViewScale();
+            revision = loader.getRevision();
+        }
+
+        if( detailLevel == DetailLevel.DENSITY ) {
+            laneCanvas.update(genes, store, null);
+            buildGeneCanvas(geneCuller, genes, Collections.<Exon>emptyList(), densityBinSize, viewScale,
+                            loaded, detailLevel, geneElements);
+        } else {
+            geneCuller.clear();
+            geneElements.clear();
+            laneCanvas.update(genes, store, detailLevel);
+        }
 
-    		ge.setPosition(x, y);
+        return revision;
+    }
 
-    		canvas.add(ge);
+    /*
+     * Genomic position shown at the left edge of the window.
+     */
+    private int getVisibleStart() {
+        return (int) (getCenter(viewScale) - scroll / scale);
+    }
 
-    		elements.add(ge);
-    	}
+    /*
+     * Genomic position shown at the right edge of the window.
+     */
+    private int getVisibleEnd() {
+        return (int) Math.ceil(getCenter(viewScale) + (WIDTH - scroll) / scale);
+    }
 
-    	for( Gene g: genes ){
-    		GeneElement ge = new GeneElement(g, scale);
+    private static double getCenter(ViewScale viewScale) {
+        return GeneScene.getCenter(viewScale);
+    }
 
-    		double x = ((g.getEnd() + g.getStart())/2.0 - viewScale.getStart() - viewScale.getLength() / 2.0) * scale;
-    		double y = GENE_ELEMENT_ORDER_STEP * g.getOrder();
+    /*
+     * Rebuild the scale for the visible range and one window on each side when the
+     * scale has changed or the view has left the range it was built for.
+     */
+    private void updateScaleCanvas() {
+        final int start = getVisibleStart();
+        final int end = getVisibleEnd();
 
-    		ge.setPosition(x, y);
+        if( scale == scaleCanvasScale && start >= scaleCanvasStart && end <= scaleCanvasEnd ) {
+            return;
+        }
 
-    		ge.addMouseEventCallback(new MouseOverCallback() {
+        final int length = end - start;
 
-                public void run(MouseOverEventType eventType, Element element) {
-                    GeneElement e = (GeneElement) element;
+        scaleCanvasScale = scale;
+        scaleCanvasStart = Math.max(1, start - length);
+        scaleCanvasEnd = end + length;
 
-                    switch(eventType) {
-                    case ENTERED:
-                        e.setSelected(true);
-                        break;
+        // part of the loaded range to be built
+        ViewScale loaded = loader.getViewScale();
+        ViewScale range = null;
 
-                    case EXITED:
-                        e.setSelected(false);
-                        break;
-                    default:
-                        break;
-                    }
-                }
-            });
+        if( loaded != null && loaded.getStart() <= scaleCanvasEnd && loaded.getStop() >= scaleCanvasStart ) {
+            range = new ViewScale(loaded.getChr(),
+                                  Math.max(loaded.getStart(), scaleCanvasStart),
+                                  Math.min(loaded.getStop(), scaleCanvasEnd));
+        }
 
-    		canvas.add(ge);
+        buildScaleCanvas(scaleCuller, scale, range, viewScale);
+    }
 
-    		elements.add(ge);
-    	}
+	/*
+	 * Build gene elements in base pairs relative to the center of viewScale; the canvas is scaled to pixels.
+	 * Package visible for the benchmarks.
+	 */
+	static void buildGeneCanvas(ViewportCuller culler, List<Gene> genes, List<Exon> exons,
+	                                    int densityBinSize, ViewScale viewScale, ViewScale range,
+	                                    DetailLevel level, List<GeneElement> elements){
+	    culler.clear();
+	    elements.clear();
 
-    	return canvas;
+	    GeneScene.buildGenes(new CanvasSink(culler, elements), genes, exons, densityBinSize, viewScale, range, level);
 	}
 
-    private static Canvas createScaleCanvas(double scale, ViewScale viewScale){
-        Canvas canvas = new Canvas();
+    /*
+     * Build scale of the range, placed relative to the center of viewScale. Package
+     * visible for the benchmarks.
+     */
+    static void buildScaleCanvas(ViewportCuller culler, double scale, ViewScale range, ViewScale viewScale){
+        culler.clear();
+
+        GeneScene.buildScale(new CanvasSink(culler, null), scale, range, viewScale);
+    }
+
+    /*
+     * Creates casmi elements of a scene and registers them with a culler.
+     */
+    static class CanvasSink implements SceneSink {
+
+        private final ViewportCuller culler;
+        private final List<GeneElement> elements;
+
+        private Font font = null;
+
+        CanvasSink(ViewportCuller culler, List<GeneElement> elements) {
+            this.culler = culler;
+            this.elements = elements;
+        }
+
+        public void addExon(Exon e, double x, double y) {
+            add(new GeneElement(e, 1.0), x, y);
+        }
+
+        public void addGene(Gene g, double x, double y) {
+            add(new GeneElement(g, 1.0), x, y);
+        }
+
+        private void add(GeneElement ge, double x, double y) {
+            ge.setPosition(x, y);
 
-    	Font f = new Font("San-Serif");
-        f.setSize(10);
+            culler.add(ge, ge.getLeft(), ge.getRight());
 
-        final int length = viewScale.getLength();
-        final int halfLength = length / 2;
-    	final int digit = (int) Math.log10(length) + 1;
-    	final double step = Math.pow(10, (digit - 2) );
-    	final int numScales = (int) (length / step) + 1;
+            elements.add(ge);
+        }
 
-    	for( int i=0; i<numScales; i++ ) {
-    		Line l = new Line( (i * step - halfLength ) * scale, HALF_SCALE_HEIGHT,
-					   		   (i * step - halfLength ) * scale, - HALF_SCALE_HEIGHT);
-    		l.setStrokeColor(ColorSet.WHITE);
-    		canvas.add(l);
+        public void addDensity(int count, double x, double y, double width, double height, int left, int right) {
+            DensityElement de = new DensityElement(width, height, count);
 
-    		Text t = new Text(Integer.toString((int)(i * step + viewScale.getStart())), f,
-    						  (int)((i * step - halfLength ) * scale),
-    						  (int)-SCALE_HEIGHT);
-    		t.setStrokeColor(ColorSet.WHITE);
-    		canvas.add(t);
-    	}
+            de.setPosition(x, y);
 
-    	Line scaleMainLine = new Line(- scale * halfLength, 0, scale * halfLength, 0);
-    	scaleMainLine.setStrokeColor(ColorSet.WHITE);
-    	canvas.add(scaleMainLine);
+            culler.add(de, left, right);
+        }
 
-    	return canvas;
+        public void addLine(double x1, double y1, double x2, double y2, int left, int right) {
+            Line l = new Line(x1, y1, x2, y2);
+            l.setStrokeColor(ColorSet.WHITE);
+
+            culler.add(l, left, right);
+        }
+
+        public void addText(String text, double x, double y, int left, int right) {
+            if( font == null ) {
+                font = new Font("San-Serif");
+                font.setSize(10);
+            }
+
+            Text t = new Text(text, font, (int) x, (int) y);
+            t.setStrokeColor(ColorSet.WHITE);
+
+            culler.add(t, left, right);
+        }
     }
 
     @Override
@@ -266,10 +432,11 @@ public class GeneView extends Applet
 
             if(Math.abs(diffY) > MOUSE_SCALING_THRESHOLD) { // scaling
 
+                // zoom by a constant factor per pixel so that every level of detail is reachable
                 if( (diffY) > 0){
-                    scale += (Math.abs(diffY) - MOUSE_SCALING_THRESHOLD) * SCALE_STEP;
+                    scale *= Math.pow(SCALE_FACTOR_STEP, Math.abs(diffY) - MOUSE_SCALING_THRESHOLD);
                 }else{
-                    scale -= (Math.abs(diffY) - MOUSE_SCALING_THRESHOLD) * SCALE_STEP;
+                    scale /= Math.pow(SCALE_FACTOR_STEP, Math.abs(diffY) - MOUSE_SCALING_THRESHOLD);
                 }
 
                 if(scale < MIN_SCALE){
@@ -0,0 +1,199 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.view;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.FeatureStore;
+import jp.xcoo.casmi.geneview.data.Gene;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+import casmi.graphics.canvas.Canvas;
+
+/**
+ * exon and gene elements of the gene canvas, kept per lane (gene order)
+ *
+ * Each lane has its own culler. On an update the gene list is compared with the
+ * previous one position by position; the layout copies a gene before changing it, so
+ * a gene which is the same object as before has not changed. Only lanes which gained,
+ * lost or changed genes are rebuilt, and the hit tester is updated for the same lanes.
+ */
+class LaneCanvas {
+
+	private final Canvas canvas;
+	private final ViewScale viewScale;
+
+	private final Map<Integer, Lane> lanes = new HashMap<Integer, Lane>();
+	private final GeneHitTester hitTester = new GeneHitTester(Collections.<Gene>emptyList());
+
+	// genes the lanes hold, and the level elements are built for (null if none are)
+	private List<Gene> genes = Collections.emptyList();
+	private DetailLevel level = null;
+
+	/**
+	 * @param viewScale elements are placed relative to its center
+	 */
+	LaneCanvas(Canvas canvas, ViewScale viewScale) {
+		this.canvas = canvas;
+		this.viewScale = viewScale;
+	}
+
+	/**
+	 * Update the lanes for a gene list and build elements of a level of detail, which
+	 * is EXON or GENE, or null to remove all elements. Exons are read from the store the
+	 * genes were assembled from.
+	 */
+	void update(List<Gene> genes, FeatureStore store, DetailLevel level) {
+		Set<Integer> changed = new HashSet<Integer>();
+
+		final int n = genes.size(), m = this.genes.size();
+
+		for( int i = 0; i < Math.max(n, m); i++ ) {
+			Gene g = i < n ? genes.get(i) : null;
+			Gene old = i < m ? this.genes.get(i) : null;
+
+			if( g == old ) {
+				continue;
+			}
+
+			if( old != null ) {
+				lane(old.getOrder()).genes.remove(old);
+				changed.add(old.getOrder());
+			}
+
+			if( g != null ) {
+				lane(g.getOrder()).genes.add(g);
+				changed.add(g.getOrder());
+			}
+		}
+
+		this.genes = genes;
+
+		for( Integer order : changed ) {
+			hitTester.setLane(order, lanes.get(order).genes);
+		}
+
+		if( level != this.level ) {
+			this.level = level;
+
+			// every lane is built again for another level
+			changed = new HashSet<Integer>(lanes.keySet());
+		}
+
+		for( Integer order : changed ) {
+			Lane lane = lanes.get(order);
+
+			lane.culler.clear();
+
+			if( lane.genes.isEmpty() ) {
+				lanes.remove(order);
+			} else if( level != null ) {
+				build(lane, store);
+			}
+		}
+	}
+
+	/**
+	 * Attach elements intersecting [visibleStart, visibleEnd] and remove the others.
+	 */
+	void cull(int visibleStart, int visibleEnd) {
+		for( Lane lane : lanes.values() ) {
+			lane.culler.update(visibleStart, visibleEnd);
+		}
+	}
+
+	/**
+	 * Returns a gene of the order covering the position, or null.
+	 */
+	Gene find(int order, double position) {
+		return hitTester.find(order, position);
+	}
+
+	int getNumElements() {
+		int n = 0;
+
+		for( Lane lane : lanes.values() ) {
+			n += lane.culler.getNumElements();
+		}
+
+		return n;
+	}
+
+	int getNumAttached() {
+		int n = 0;
+
+		for( Lane lane : lanes.values() ) {
+			n += lane.culler.getNumAttached();
+		}
+
+		return n;
+	}
+
+	private Lane lane(int order) {
+		Lane lane = lanes.get(order);
+
+		if( lane == null ) {
+			lane = new Lane(new ViewportCuller(canvas));
+			lanes.put(order, lane);
+		}
+
+		return lane;
+	}
+
+	private void build(Lane lane, FeatureStore store) {
+		List<Gene> laneGenes = new ArrayList<Gene>(lane.genes);
+		List<Exon> exons = new ArrayList<Exon>();
+
+		if( level == DetailLevel.EXON ) {
+			for( Gene g : laneGenes ) {
+				for( int i = 0; i < g.getNumExons(); i++ ) {
+					Exon e = store.getExon(g.getExonIndex(i));
+
+					// the order of the gene as of this list, whatever the store holds now
+					e.setOrder(g.getOrder());
+					exons.add(e);
+				}
+			}
+		}
+
+		lane.elements.clear();
+
+		GeneScene.buildGenes(new GeneView.CanvasSink(lane.culler, lane.elements), laneGenes, exons, 0, viewScale,
+		                     null, level);
+	}
+
+	private static class Lane {
+
+		// genes compared by identity, as copies of a gene are equal to it
+		final Set<Gene> genes = Collections.newSetFromMap(new IdentityHashMap<Gene, Boolean>());
+		final ViewportCuller culler;
+		final List<GeneElement> elements = new ArrayList<GeneElement>();
+
+		Lane(ViewportCuller culler) {
+			this.culler = culler;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.view;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.Gene;
+
+/**
+ * receiver of the shapes of a scene built by GeneScene
+ *
+ * Coordinates are those of the canvas the shapes are built for, y growing upwards.
+ * Each shape also comes with the genomic interval [left, right] it covers.
+ */
+public interface SceneSink {
+
+	/**
+	 * Add an exon centered at (x, y), GeneScene.EXON_HEIGHT high.
+	 */
+	void addExon(Exon e, double x, double y);
+
+	/**
+	 * Add a gene span centered at (x, y), GeneScene.GENE_HEIGHT high.
+	 */
+	void addGene(Gene g, double x, double y);
+
+	/**
+	 * Add a bar of the number of genes in a bin, centered at (x, y).
+	 */
+	void addDensity(int count, double x, double y, double width, double height, int left, int right);
+
+	void addLine(double x1, double y1, double x2, double y2, int left, int right);
+
+	/**
+	 * Add a text starting at (x, y).
+	 */
+	void addText(String text, double x, double y, int left, int right);
+}
@@ -0,0 +1,441 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.view;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import jp.xcoo.casmi.geneview.cache.CacheManager;
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.Gene;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+import jp.xcoo.casmi.geneview.data.type.GeneType;
+import jp.xcoo.casmi.geneview.net.GeneLoader;
+import jp.xcoo.casmi.geneview.source.FeatureSource;
+import jp.xcoo.casmi.geneview.source.FeatureSources;
+
+/**
+ * renders regions to PNG images with Java2D, without a display or casmi
+ *
+ * Scenes are built by GeneScene exactly as GeneView builds its canvases, and drawn
+ * as GeneView shows them with the region filling the width of the image. Each region
+ * is loaded with a GeneLoader of its own, sharing the feature source and the cache,
+ * so regions can be rendered in parallel.
+ *
+ * Run from the command line with a region list, one region per line, either
+ * "chr:start-end [name]" (1-based, inclusive) or BED columns "chr start end [name]":
+ * <pre>
+ * java -Djava.awt.headless=true jp.xcoo.casmi.geneview.view.SnapshotRenderer --regions regions.txt --out images
+ * </pre>
+ */
+public class SnapshotRenderer {
+
+	public static final int DEFAULT_WIDTH = 1024;
+	public static final int DEFAULT_HEIGHT = 768;
+
+
+	private static final String IMAGE_FORMAT = "png";
+
+	private static final float TEXT_SIZE = 10.0f;
+
+	private static final GeneType[] TYPES = GeneType.values();
+
+	private final FeatureSource source;
+	private final String[] types;
+	private final CacheManager cache;
+
+	private final int width;
+	private final int height;
+
+	public SnapshotRenderer(FeatureSource source, String[] types, CacheManager cache, int width, int height) {
+		this.source = source;
+		this.types = types.clone();
+		this.cache = cache;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * region to render and the name of its image
+	 */
+	public static class Region {
+
+		private final ViewScale viewScale;
+		private final String name;
+
+		public Region(ViewScale viewScale, String name) {
+			this.viewScale = viewScale;
+			this.name = name;
+		}
+
+		public ViewScale getViewScale() {
+			return viewScale;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Parse "chr:start-end [name]" or BED columns "chr start end [name]". Returns
+		 * null for blank lines, comments and BED track or browser lines.
+		 *
+		 * @throws IllegalArgumentException if the line is not a region
+		 */
+		public static Region parse(String line) {
+			String[] columns = line.trim().split("\\s+");
+
+			if( columns[0].length() == 0 || columns[0].startsWith("#")
+			    || columns[0].equals("track") || columns[0].equals("browser") ) {
+				return null;
+			}
+
+			String chr;
+			int start, end;
+			String name;
+
+			try {
+				int colon = columns[0].lastIndexOf(':');
+
+				if( colon >= 0 ) {
+					String[] range = columns[0].substring(colon + 1).replace(",", "").split("-");
+
+					chr = columns[0].substring(0, colon);
+					start = Integer.parseInt(range[0]);
+					end = Integer.parseInt(range[1]);
+					name = columns.length > 1 ? columns[1] : null;
+				} else {
+					// BED is 0-based and half-open
+					chr = columns[0];
+					start = Integer.parseInt(columns[1]) + 1;
+					end = Integer.parseInt(columns[2]);
+					name = columns.length > 3 ? columns[3] : null;
+				}
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("not a region: " + line, e);
+			}
+
+			if( start < 1 || end < start ) {
+				throw new IllegalArgumentException("not a region: " + line);
+			}
+
+			if( name == null ) {
+				name = chr + "_" + start + "_" + end;
+			}
+
+			return new Region(new ViewScale(chr, start, end), name);
+		}
+	}
+
+	/**
+	 * Load features of a region and render it.
+	 */
+	public BufferedImage render(ViewScale region) {
+		GeneLoader loader = new GeneLoader(source, types, cache);
+
+		try {
+			loader.loadRegion(region.getChr(), region.getStart(), region.getStop());
+
+			return render(loader.getGenes(), loader.getExons(), loader.getViewScale(), region, width, height);
+		} finally {
+			loader.shutdown();
+		}
+	}
+
+	public void render(ViewScale region, File file) throws IOException {
+		ImageIO.write(render(region), IMAGE_FORMAT, file);
+	}
+
+	/**
+	 * Render regions to PNG files named after them in a directory, on numThreads
+	 * threads. Failures are reported and do not stop the other regions.
+	 *
+	 * @return number of regions which could not be rendered
+	 */
+	public int renderAll(List<Region> regions, final File directory, int numThreads) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		final AtomicInteger numFailures = new AtomicInteger();
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(regions.size());
+
+		try {
+			for( final Region region : regions ) {
+				futures.add(executor.submit(new Runnable() {
+
+					public void run() {
+						File file = new File(directory, region.getName() + "." + IMAGE_FORMAT);
+
+						try {
+							render(region.getViewScale(), file);
+						} catch (IOException e) {
+							e.printStackTrace();
+							System.err.println("can not write " + file);
+							numFailures.incrementAndGet();
+						}
+					}
+				}));
+			}
+
+			for( Future<?> f : futures ) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					numFailures.incrementAndGet();
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return numFailures.get();
+	}
+
+	/**
+	 * Render loaded genes and exons with region filling the width of the image.
+	 *
+	 * @param loaded range the features were loaded for, or null if nothing is loaded
+	 */
+	public static BufferedImage render(List<Gene> genes, List<Exon> exons, ViewScale loaded, ViewScale region,
+	                                   int width, int height) {
+		final double scale = (double)width / Math.max(1, region.getLength());
+		final DetailLevel level = DetailLevel.forScale(scale);
+
+		// part of the loaded range in the region, as GeneView builds its scale for the visible range
+		ViewScale range = null;
+
+		if( loaded != null && loaded.getChr().equals(region.getChr())
+		    && loaded.getStart() <= region.getStop() && loaded.getStop() >= region.getStart() ) {
+			range = new ViewScale(region.getChr(), Math.max(loaded.getStart(), region.getStart()),
+			                      Math.min(loaded.getStop(), region.getStop()));
+		}
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+
+		try {
+			g.setColor(Color.BLACK);
+			g.fillRect(0, 0, width, height);
+
+			// the center line of GeneView's canvases, one third of the height from the bottom
+			final double originX = width / 2.0;
+			final double originY = height - height / 3.0;
+
+			GeneScene.buildGenes(new Java2DSink(g, scale, originX, originY, width), genes, exons,
+			                     GeneScene.getDensityBinSize(scale), region, range, level);
+			GeneScene.buildScale(new Java2DSink(g, 1.0, originX, originY, width), scale, range, region);
+		} finally {
+			g.dispose();
+		}
+
+		return image;
+	}
+
+	/*
+	 * Draws shapes of a scene, zooming x by scaleX and flipping y.
+	 */
+	private static class Java2DSink implements SceneSink {
+
+		private final Graphics2D g;
+		private final double scaleX;
+		private final double originX;
+		private final double originY;
+		private final int width;
+
+		private final Color[] typeColors = new Color[TYPES.length];
+		private final Color densityColor = createColor(GeneScene.getDensityRGB());
+
+		private final Rectangle2D.Double rect = new Rectangle2D.Double();
+		private final Line2D.Double line = new Line2D.Double();
+
+		Java2DSink(Graphics2D g, double scaleX, double originX, double originY, int width) {
+			this.g = g;
+			this.scaleX = scaleX;
+			this.originX = originX;
+			this.originY = originY;
+			this.width = width;
+
+			for( GeneType type : TYPES ) {
+				typeColors[type.ordinal()] = createColor(GeneScene.getRGB(type));
+			}
+
+			g.setStroke(new BasicStroke(1.0f));
+			g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 1).deriveFont(TEXT_SIZE));
+		}
+
+		public void addExon(Exon e, double x, double y) {
+			fillRect(typeColors[e.getType().ordinal()], x, y, e.getLength(), GeneScene.EXON_HEIGHT);
+		}
+
+		public void addGene(Gene gene, double x, double y) {
+			fillRect(typeColors[gene.getType().ordinal()], x, y, gene.getLength(), GeneScene.GENE_HEIGHT);
+		}
+
+		public void addDensity(int count, double x, double y, double w, double h, int left, int right) {
+			fillRect(densityColor, x, y, w, h);
+		}
+
+		public void addLine(double x1, double y1, double x2, double y2, int left, int right) {
+			line.setLine(originX + x1 * scaleX, originY - y1, originX + x2 * scaleX, originY - y2);
+
+			g.setColor(Color.WHITE);
+			g.draw(line);
+		}
+
+		public void addText(String text, double x, double y, int left, int right) {
+			double px = originX + x * scaleX;
+
+			if( px > width ) {
+				return;
+			}
+
+			g.setColor(Color.WHITE);
+			g.drawString(text, (float)px, (float)(originY - y));
+		}
+
+		/*
+		 * Fill a rectangle centered at (x, y), at least a pixel wide so that short
+		 * features stay visible.
+		 */
+		private void fillRect(Color color, double x, double y, double w, double h) {
+			double pw = Math.max(1.0, w * scaleX);
+			double px = originX + x * scaleX - pw / 2.0;
+
+			if( px + pw < 0 || px > width ) {
+				return;
+			}
+
+			rect.setRect(px, originY - y - h / 2.0, pw, h);
+
+			g.setColor(color);
+			g.fill(rect);
+		}
+
+		private static Color createColor(double[] rgb) {
+			return new Color((float)rgb[0], (float)rgb[1], (float)rgb[2]);
+		}
+	}
+
+	private static List<Region> readRegions(File file) throws IOException {
+		List<Region> regions = new ArrayList<Region>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+		try {
+			String line;
+			while( (line = reader.readLine()) != null ) {
+				Region region = Region.parse(line);
+
+				if( region != null ) {
+					regions.add(region);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		return regions;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if( System.getProperty("java.awt.headless") == null ) {
+			System.setProperty("java.awt.headless", "true");
+		}
+
+		File regionFile = null;
+		File directory = new File(".");
+		int width = DEFAULT_WIDTH, height = DEFAULT_HEIGHT;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		String spec = null;
+		String[] types = null;
+
+		for( int i = 0; i + 1 < args.length; i += 2 ) {
+			String option = args[i], value = args[i + 1];
+
+			if( option.equals("--regions") ) {
+				regionFile = new File(value);
+			} else if( option.equals("--out") ) {
+				directory = new File(value);
+			} else if( option.equals("--width") ) {
+				width = Integer.parseInt(value);
+			} else if( option.equals("--height") ) {
+				height = Integer.parseInt(value);
+			} else if( option.equals("--threads") ) {
+				numThreads = Integer.parseInt(value);
+			} else if( option.equals("--source") ) {
+				spec = value;
+			} else if( option.equals("--types") ) {
+				types = value.split(",");
+			} else {
+				regionFile = null;
+				break;
+			}
+		}
+
+		if( regionFile == null ) {
+			System.err.println("options: --regions FILE --out DIR --width N --height N --threads N"
+			                   + " --source das[:URL]|file:PATH|memory:PATH|synthetic:GENES --types TYPE,TYPE");
+			System.exit(1);
+		}
+
+		if( !directory.isDirectory() && !directory.mkdirs() ) {
+			System.err.println("can not create directory " + directory);
+			System.exit(1);
+		}
+
+		CacheManager cache = CacheManager.getDefault();
+		FeatureSource source = spec == null ? FeatureSources.getDefault(cache) : FeatureSources.create(spec, cache);
+
+		List<Region> regions = readRegions(regionFile);
+
+		long startTime = System.currentTimeMillis();
+		if( types == null ) {
+			types = FeatureSources.getDefaultTypes(source);
+		}
+
+		int numFailures = new SnapshotRenderer(source, types, cache, width, height).renderAll(regions, directory,
+		                                                                                      numThreads);
+		cache.flush();
+
+		System.out.println("rendered " + (regions.size() - numFailures) + " of " + regions.size() + " regions in "
+		                   + (System.currentTimeMillis() - startTime) + " ms");
+
+		if( numFailures > 0 ) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,302 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.view;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import casmi.graphics.canvas.Canvas;
+import casmi.graphics.element.Element;
+
+/**
+ * keeps only elements intersecting the visible genomic range on a canvas
+ *
+ * Elements are registered with their genomic interval and attached to or removed
+ * from the canvas incrementally as the visible range moves. Elements longer than
+ * LONG_LENGTH are kept apart and checked on every update, so a few long elements
+ * do not widen the candidate window of the others.
+ */
+public class ViewportCuller {
+
+	public static final int LONG_LENGTH = 100000;
+
+	private final Canvas canvas;
+
+	private final List<Element> pendingElements = new ArrayList<Element>();
+	private final List<int[]> pendingIntervals = new ArrayList<int[]>();
+
+	// registered elements sorted by left end
+	private Element[] elements = new Element[0];
+	private int[] lefts = new int[0];
+	private int[] rights = new int[0];
+	private boolean[] attached = new boolean[0];
+	private int maxLength = 0;
+
+	// registered elements longer than LONG_LENGTH, in registration order
+	private Element[] longElements = new Element[0];
+	private int[] longLefts = new int[0];
+	private int[] longRights = new int[0];
+	private boolean[] longAttached = new boolean[0];
+
+	// index range of the candidates examined on the last update
+	private int lo = 0;
+	private int hi = 0;
+
+	private int numAttached = 0;
+
+	public ViewportCuller(Canvas canvas) {
+		this.canvas = canvas;
+	}
+
+	/**
+	 * Register an element covering genomic interval [left, right].
+	 */
+	public void add(Element element, int left, int right) {
+		pendingElements.add(element);
+		pendingIntervals.add(new int[] {left, right});
+	}
+
+	/**
+	 * Remove all elements from the canvas and unregister them.
+	 */
+	public void clear() {
+		for( int i = lo; i < hi; i++ ) {
+			if( attached[i] ) {
+				canvas.remove(elements[i]);
+			}
+		}
+
+		for( int i = 0; i < longElements.length; i++ ) {
+			if( longAttached[i] ) {
+				canvas.remove(longElements[i]);
+			}
+		}
+
+		pendingElements.clear();
+		pendingIntervals.clear();
+
+		elements = new Element[0];
+		lefts = new int[0];
+		rights = new int[0];
+		attached = new boolean[0];
+		maxLength = 0;
+		longElements = new Element[0];
+		longLefts = new int[0];
+		longRights = new int[0];
+		longAttached = new boolean[0];
+		lo = hi = 0;
+		numAttached = 0;
+	}
+
+	/**
+	 * Attach elements intersecting [visibleStart, visibleEnd] and remove the others.
+	 */
+	public void update(int visibleStart, int visibleEnd) {
+		if( !pendingElements.isEmpty() ) {
+			register();
+		}
+
+		for( int i = 0; i < longElements.length; i++ ) {
+			boolean visible = longLefts[i] <= visibleEnd && longRights[i] >= visibleStart;
+
+			if( visible != longAttached[i] ) {
+				if( visible ) {
+					canvas.add(longElements[i]);
+					numAttached++;
+				} else {
+					canvas.remove(longElements[i]);
+					numAttached--;
+				}
+				longAttached[i] = visible;
+			}
+		}
+
+		// candidates start after the longest short interval could still reach the visible range
+		final int newLo = lowerBound(lefts, (int) Math.max(Integer.MIN_VALUE, (long) visibleStart - maxLength));
+		final int newHi = upperBound(lefts, visibleEnd);
+
+		// elements leaving the candidate range
+		for( int i = lo; i < hi; i++ ) {
+			if( (i < newLo || i >= newHi) && attached[i] ) {
+				detach(i);
+			}
+		}
+
+		for( int i = newLo; i < newHi; i++ ) {
+			boolean visible = rights[i] >= visibleStart;
+
+			if( visible && !attached[i] ) {
+				attach(i);
+			} else if( !visible && attached[i] ) {
+				detach(i);
+			}
+		}
+
+		lo = newLo;
+		hi = newHi;
+	}
+
+	public int getNumAttached() {
+		return numAttached;
+	}
+
+	public int getNumElements() {
+		return elements.length + longElements.length + pendingElements.size();
+	}
+
+	private void attach(int i) {
+		canvas.add(elements[i]);
+		attached[i] = true;
+		numAttached++;
+	}
+
+	private void detach(int i) {
+		canvas.remove(elements[i]);
+		attached[i] = false;
+		numAttached--;
+	}
+
+	/*
+	 * Merge pending elements into the sorted arrays, or into the long elements.
+	 */
+	private void register() {
+		int numLong = 0;
+		for( int[] interval : pendingIntervals ) {
+			if( interval[1] - interval[0] > LONG_LENGTH ) {
+				numLong++;
+			}
+		}
+
+		if( numLong > 0 ) {
+			registerLong(numLong);
+		}
+
+		final int n = elements.length + pendingElements.size();
+
+		Element[] allElements = Arrays.copyOf(elements, n);
+		int[] allLefts = Arrays.copyOf(lefts, n);
+		int[] allRights = Arrays.copyOf(rights, n);
+		boolean[] allAttached = Arrays.copyOf(attached, n);
+
+		for( int i = elements.length; i < n; i++ ) {
+			int[] interval = pendingIntervals.get(i - elements.length);
+			allElements[i] = pendingElements.get(i - elements.length);
+			allLefts[i] = interval[0];
+			allRights[i] = interval[1];
+			maxLength = Math.max(maxLength, interval[1] - interval[0]);
+		}
+
+		pendingElements.clear();
+		pendingIntervals.clear();
+
+		// sort by left end, keys are left ends packed with the index
+		long[] keys = new long[n];
+		for( int i = 0; i < n; i++ ) {
+			keys[i] = ((long) allLefts[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		elements = new Element[n];
+		lefts = new int[n];
+		rights = new int[n];
+		attached = new boolean[n];
+
+		for( int i = 0; i < n; i++ ) {
+			int j = (int) (keys[i] & 0xffffffffL);
+			elements[i] = allElements[j];
+			lefts[i] = allLefts[j];
+			rights[i] = allRights[j];
+			attached[i] = allAttached[j];
+		}
+
+		// indices have moved; examine every attached element on the next update
+		lo = 0;
+		hi = n;
+	}
+
+	/*
+	 * Move pending elements longer than LONG_LENGTH to the long element arrays.
+	 */
+	private void registerLong(int numLong) {
+		int m = longElements.length;
+
+		longElements = Arrays.copyOf(longElements, m + numLong);
+		longLefts = Arrays.copyOf(longLefts, m + numLong);
+		longRights = Arrays.copyOf(longRights, m + numLong);
+		longAttached = Arrays.copyOf(longAttached, m + numLong);
+
+		int kept = 0;
+		for( int i = 0; i < pendingElements.size(); i++ ) {
+			int[] interval = pendingIntervals.get(i);
+
+			if( interval[1] - interval[0] > LONG_LENGTH ) {
+				longElements[m] = pendingElements.get(i);
+				longLefts[m] = interval[0];
+				longRights[m] = interval[1];
+				m++;
+			} else {
+				pendingElements.set(kept, pendingElements.get(i));
+				pendingIntervals.set(kept, interval);
+				kept++;
+			}
+		}
+
+		pendingElements.subList(kept, pendingElements.size()).clear();
+		pendingIntervals.subList(kept, pendingIntervals.size()).clear();
+	}
+
+	/*
+	 * First index whose value is not less than key.
+	 */
+	private static int lowerBound(int[] values, int key) {
+		int low = 0, high = values.length;
+
+		while( low < high ) {
+			int mid = (low + high) >>> 1;
+
+			if( values[mid] < key ) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	/*
+	 * First index whose value is greater than key.
+	 */
+	private static int upperBound(int[] values, int key) {
+		int low = 0, high = values.length;
+
+		while( low < high ) {
+			int mid = (low + high) >>> 1;
+
+			if( values[mid] <= key ) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * tests of batched manifest writes
+ */
+public class CacheManagerTest {
+
+	private static final int NUM_ENTRIES = 20;
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("geneview-test", "");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+
+		if( files != null ) {
+			for( File f : files ) {
+				f.delete();
+			}
+		}
+
+		directory.delete();
+	}
+
+	@Test
+	public void writesManifestOnceForManyCommits() throws IOException {
+		CacheManager cache = new CacheManager(directory, CacheManager.DEFAULT_BUDGET);
+		File manifest = new File(cache.getDirectory(), "manifest.txt");
+
+		final long written = manifest.lastModified();
+
+		for( int i = 0; i < NUM_ENTRIES; i++ ) {
+			String source = "tile" + i;
+			String name = CacheManager.createKey(source) + FeatureCacheFile.FILE_EXTENSION;
+
+			File temporaryFile = cache.createTemporaryFile(name);
+			FileOutputStream out = new FileOutputStream(temporaryFile);
+			out.write(i);
+			out.close();
+
+			cache.commit(temporaryFile, name, source);
+		}
+
+		// commits are only recorded in memory until the manifest is written
+		assertEquals(NUM_ENTRIES, cache.getNumEntries());
+		assertEquals(written, manifest.lastModified());
+		assertEquals(0, countLines(manifest));
+
+		cache.flush();
+
+		assertEquals(NUM_ENTRIES, countLines(manifest));
+	}
+
+	private static int countLines(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+		try {
+			int n = 0;
+
+			while( reader.readLine() != null ) {
+				n++;
+			}
+
+			return n;
+		} finally {
+			reader.close();
+		}
+	}
+}
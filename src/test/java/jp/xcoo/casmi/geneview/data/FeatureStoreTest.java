@@ -0,0 +1,72 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import jp.xcoo.casmi.geneview.data.type.GeneOrientaion;
+import jp.xcoo.casmi.geneview.data.type.GeneType;
+
+import org.junit.Test;
+
+/**
+ * tests of the order of features in a store
+ */
+public class FeatureStoreTest {
+
+	@Test
+	public void sortsFeaturesAddedBetweenQueries() {
+		FeatureStore store = new FeatureStore(new SymbolTable());
+		Random random = new Random(1);
+
+		List<Exon> before = null;
+
+		for( int batch = 0; batch < 10; batch++ ) {
+			for( int i = 0; i < 100; i++ ) {
+				int start = random.nextInt(10000);
+				store.add(new Exon("e" + batch + "." + i, "chr1", start, start + random.nextInt(1000),
+				                   GeneOrientaion.OrientationPlus, null, "g" + i, GeneType.REFERENCE_SEQUENCE));
+			}
+
+			List<Exon> sorted = store.asSortedExonList();
+
+			assertEquals(store.size(), sorted.size());
+
+			for( int rank = 1; rank < store.size(); rank++ ) {
+				int a = store.getSortedIndex(rank - 1), b = store.getSortedIndex(rank);
+
+				assertTrue(store.getStart(a) < store.getStart(b) || (store.getStart(a) == store.getStart(b) && a < b));
+				assertEquals(store.getStart(b), sorted.get(rank).getStart());
+			}
+
+			// views taken before keep their features and order
+			if( before != null ) {
+				for( int rank = 1; rank < before.size(); rank++ ) {
+					assertTrue(before.get(rank - 1).getStart() <= before.get(rank).getStart());
+				}
+			}
+
+			before = sorted;
+		}
+	}
+}
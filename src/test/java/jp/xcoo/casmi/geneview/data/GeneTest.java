@@ -0,0 +1,70 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import jp.xcoo.casmi.geneview.data.type.GeneOrientaion;
+import jp.xcoo.casmi.geneview.data.type.GeneType;
+
+import org.junit.Test;
+
+/**
+ * tests of equality of genes by chromosome and group
+ */
+public class GeneTest {
+
+	@Test
+	public void comparesNamesIgnoringCase() {
+		Gene a = gene("NM_0001", "chr1"), b = gene("nm_0001", "CHR1");
+
+		assertTrue(a.equals(b));
+		assertEquals(a.hashCode(), b.hashCode());
+		assertFalse(a.equals(gene("NM_0002", "chr1")));
+		assertFalse(a.equals(gene("NM_0001", "chr2")));
+	}
+
+	@Test
+	public void comparesIDsOfFoldedNames() {
+		SymbolTable symbols = new SymbolTable();
+
+		Gene a = gene("NM_0001", "chr1"), b = gene("nm_0001", "CHR1"), c = gene("NM_0002", "chr1");
+
+		for( Gene g : new Gene[] {a, b, c} ) {
+			g.setChrID(symbols.internFolded(g.getChr()));
+			g.setGroupID(symbols.internFolded(g.getGroup()));
+		}
+
+		assertTrue(a.equals(b));
+		assertFalse(a.equals(c));
+
+		// a gene without ids is compared by names, with the same hash
+		Gene d = gene("Nm_0001", "Chr1");
+
+		assertTrue(a.equals(d));
+		assertTrue(d.equals(a));
+		assertEquals(a.hashCode(), d.hashCode());
+	}
+
+	private static Gene gene(String group, String chr) {
+		return new Gene(group, chr, 100, 200, GeneOrientaion.OrientationPlus, GeneType.REFERENCE_SEQUENCE);
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * tests of reading a symbol table while other threads intern
+ */
+public class SymbolTableTest {
+
+	private static final int NUM_SYMBOLS = 100000;
+	private static final int NUM_WRITERS = 4;
+
+	@Test
+	public void readsWithoutLockWhileInterning() throws InterruptedException {
+		final SymbolTable symbols = new SymbolTable();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Thread[] writers = new Thread[NUM_WRITERS];
+
+		for( int w = 0; w < NUM_WRITERS; w++ ) {
+			writers[w] = new Thread() {
+
+				@Override
+				public void run() {
+					for( int i = 0; i < NUM_SYMBOLS; i++ ) {
+						symbols.intern("s" + i);
+					}
+				}
+			};
+			writers[w].start();
+		}
+
+		Thread reader = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					while( symbols.size() < NUM_SYMBOLS ) {
+						int n = symbols.size();
+
+						for( int id = Math.max(0, n - 100); id < n; id++ ) {
+							String symbol = symbols.get(id);
+							int found = symbols.find(symbol);
+
+							// found once interned, under the same id
+							assertTrue(symbol, found == id || found == -1);
+						}
+					}
+				} catch (Throwable t) {
+					failure.set(t);
+				}
+			}
+		};
+		reader.start();
+
+		for( Thread writer : writers ) {
+			writer.join();
+		}
+		reader.join();
+
+		if( failure.get() != null ) {
+			throw new AssertionError(failure.get());
+		}
+
+		assertEquals(NUM_SYMBOLS, symbols.size());
+
+		for( int i = 0; i < NUM_SYMBOLS; i++ ) {
+			assertEquals("s" + i, symbols.get(symbols.find("s" + i)));
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+
+import jp.xcoo.casmi.geneview.cache.CacheManager;
+import jp.xcoo.casmi.geneview.cache.Compression;
+import jp.xcoo.casmi.geneview.cache.FeatureCacheFile;
+import jp.xcoo.casmi.geneview.source.DASFeatureSource;
+import jp.xcoo.casmi.geneview.source.LocalDASServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * tests of loading tiles through the cache from a local DAS server
+ */
+public class GeneLoaderTest {
+
+	private static final String[] TYPES = {"refGene", "knownGene"};
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+
+	private LocalDASServer server;
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new LocalDASServer(LocalDASServer.createSyntheticSource(1, 10), 0);
+		server.start();
+
+		directory = File.createTempFile("geneview-test", "");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		delete(directory);
+	}
+
+	@Test
+	public void compressesTileCaches() throws IOException {
+		CacheManager cache = new CacheManager(directory, CacheManager.DEFAULT_BUDGET);
+		cache.setCompression(Compression.GZIP);
+
+		GeneLoader loader = load(cache, "chr1", 1, 2 * GeneLoader.TILE_SIZE);
+		final int numFeatures = loader.getFeatureStore().size();
+
+		assertTrue(numFeatures > 0);
+
+		File[] tiles = cache.getDirectory().listFiles(new FileFilter() {
+
+			public boolean accept(File file) {
+				return file.getName().endsWith(FeatureCacheFile.FILE_EXTENSION);
+			}
+		});
+
+		// two tiles of each type
+		assertEquals(4, tiles.length);
+
+		for( File tile : tiles ) {
+			assertEquals(tile.getName(), GZIP_MAGIC, readShort(tile));
+		}
+
+		// the same features are read back from the compressed tiles
+		final long numRequests = server.getNumRequests();
+
+		assertEquals(numFeatures, load(cache, "chr1", 1, 2 * GeneLoader.TILE_SIZE).getFeatureStore().size());
+		assertEquals(numRequests, server.getNumRequests());
+	}
+
+	private GeneLoader load(CacheManager cache, String chr, int start, int end) {
+		GeneLoader loader = new GeneLoader(new DASFeatureSource(server.getFeaturesURL(), cache), TYPES, cache);
+
+		try {
+			loader.loadRegion(chr, start, end);
+		} finally {
+			loader.shutdown();
+		}
+
+		return loader;
+	}
+
+	// first two bytes of a file, little endian
+	private static int readShort(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+
+		try {
+			return in.read() | (in.read() << 8);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+
+		if( files != null ) {
+			for( File f : files ) {
+				delete(f);
+			}
+		}
+
+		file.delete();
+	}
+}
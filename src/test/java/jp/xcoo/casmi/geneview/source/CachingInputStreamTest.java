@@ -0,0 +1,62 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.source;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * tests of copying read and skipped bytes to the cache
+ */
+public class CachingInputStreamTest {
+
+	private static final byte[] DATA = {1, 2, 3, 4, 5};
+
+	@Test
+	public void copiesSkippedBytes() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CachingInputStream in = new CachingInputStream(new ByteArrayInputStream(DATA), out);
+
+		assertEquals(1, in.read());
+		assertEquals(2, in.skip(2));
+
+		byte[] rest = new byte[DATA.length];
+		assertEquals(2, in.read(rest, 0, rest.length));
+
+		assertArrayEquals(DATA, out.toByteArray());
+		assertEquals(DATA.length, in.getCount());
+	}
+
+	@Test
+	public void skipsNothingForNonPositiveCount() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CachingInputStream in = new CachingInputStream(new ByteArrayInputStream(DATA), out);
+
+		assertEquals(0, in.skip(0));
+		assertEquals(0, in.skip(-1));
+		assertEquals(0, out.size());
+		assertEquals(1, in.read());
+	}
+}
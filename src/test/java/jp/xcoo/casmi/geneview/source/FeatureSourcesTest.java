@@ -0,0 +1,122 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.source;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import jp.xcoo.casmi.geneview.cache.CacheManager;
+import jp.xcoo.casmi.geneview.net.GeneLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * tests of the default source and types given by system properties
+ */
+public class FeatureSourcesTest {
+
+	private static final String BED = "track name=myGenes\n"
+	                                  + "chr1\t1000\t5000\tgeneA\t0\t+\n"
+	                                  + "chr1\t8000\t9000\tgeneB\t0\t-\n";
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("geneview-test", "");
+		directory.delete();
+		directory.mkdirs();
+
+		System.setProperty(CacheManager.DIRECTORY_PROPERTY, new File(directory, "cache").getPath());
+	}
+
+	@After
+	public void tearDown() {
+		System.clearProperty(FeatureSources.SOURCE_PROPERTY);
+		System.clearProperty(FeatureSources.TYPES_PROPERTY);
+		System.clearProperty(CacheManager.DIRECTORY_PROPERTY);
+
+		delete(directory);
+	}
+
+	@Test
+	public void defaultLoaderReadsAllTypesOfBEDFile() throws IOException {
+		System.setProperty(FeatureSources.SOURCE_PROPERTY, "file:" + writeBED().getPath());
+
+		assertEquals(Arrays.asList("myGenes"),
+		             Arrays.asList(FeatureSources.getDefaultTypes(FeatureSources.getDefault(null))));
+
+		GeneLoader loader = new GeneLoader();
+
+		try {
+			loader.loadRegion("chr1", 1, 10000);
+		} finally {
+			loader.shutdown();
+		}
+
+		assertEquals(2, loader.getFeatureStore().size());
+	}
+
+	@Test
+	public void typesPropertyOverridesTypesOfSource() throws IOException {
+		System.setProperty(FeatureSources.SOURCE_PROPERTY, "memory:" + writeBED().getPath());
+		System.setProperty(FeatureSources.TYPES_PROPERTY, "refGene, knownGene");
+
+		assertEquals(Arrays.asList("refGene", "knownGene"),
+		             Arrays.asList(FeatureSources.getDefaultTypes(FeatureSources.getDefault(null))));
+	}
+
+	@Test
+	public void dasServerDefaultsToRefGeneAndKnownGene() {
+		assertEquals(Arrays.asList(FeatureSources.DAS_TYPES),
+		             Arrays.asList(FeatureSources.getDefaultTypes(FeatureSources.getDefault(null))));
+	}
+
+	private File writeBED() throws IOException {
+		File file = new File(directory, "genes.bed");
+		OutputStream out = new FileOutputStream(file);
+
+		try {
+			out.write(BED.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+
+		return file;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+
+		if( files != null ) {
+			for( File f : files ) {
+				delete(f);
+			}
+		}
+
+		file.delete();
+	}
+}
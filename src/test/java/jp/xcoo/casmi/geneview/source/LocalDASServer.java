@@ -0,0 +1,493 @@
+/*
+ *   gene View
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.xcoo.casmi.geneview.source;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import jp.xcoo.casmi.geneview.data.Exon;
+import jp.xcoo.casmi.geneview.data.ViewScale;
+import jp.xcoo.casmi.geneview.parse.DASXMLWriter;
+import jp.xcoo.casmi.geneview.parse.FeatureCollector;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * local stand-in for the features command of the UCSC DAS server
+ *
+ * Answers /das/hg19/features?segment=chr:start,stop;type=... from a FeatureSource,
+ * by default synthetic genes generated from a fixed seed. Latency before each response,
+ * a bandwidth cap per response and a rate of failing requests (HTTP 503) can be set
+ * to reproduce network conditions without a connection.
+ *
+ * Like a web server in front of the DAS server, responses carry an ETag and a
+ * Last-Modified header (the start of the server), conditional requests are answered
+ * with 304 Not Modified and responses are gzip encoded if the client accepts it.
+ *
+ * Run with main() from the test classpath, for example:
+ * <pre>
+ * java jp.xcoo.casmi.geneview.source.LocalDASServer --port 8080 --latency 200 --bandwidth 100000
+ * </pre>
+ * and start the viewer with -Dgeneview.source=das:http://localhost:8080/das/hg19/features
+ */
+public class LocalDASServer {
+
+	public static final String FEATURES_PATH = "/das/hg19/features";
+
+	private static final String CHARSET = "UTF-8";
+
+	private static final int DEFAULT_THREADS = 8;
+	private static final long DEFAULT_SEED = FeatureGenerator.DEFAULT_SEED;
+	private static final int DEFAULT_GENES_PER_MEGABASE = 10;
+
+	private static final int THROTTLE_CHUNK_SIZE = 4096;
+
+	private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+	private final FeatureSource source;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	private volatile long latency = 0;
+	private volatile long bandwidth = 0;
+	private volatile double failureRate = 0.0;
+
+	private final Random random;
+
+	// HTTP dates have a resolution of seconds
+	private final long startTime = System.currentTimeMillis() / 1000 * 1000;
+
+	private final AtomicLong numRequests = new AtomicLong();
+	private final AtomicLong numFailures = new AtomicLong();
+	private final AtomicLong numNotModified = new AtomicLong();
+	private final AtomicLong numBytes = new AtomicLong();
+
+	/**
+	 * @param port port to listen on, 0 for any free port
+	 */
+	public LocalDASServer(FeatureSource source, int port) throws IOException {
+		this(source, port, DEFAULT_THREADS, DEFAULT_SEED);
+	}
+
+	public LocalDASServer(FeatureSource source, int port, int numThreads, long seed) throws IOException {
+		this.source = source;
+		this.random = new Random(seed);
+
+		this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		this.executor = Executors.newFixedThreadPool(numThreads);
+
+		server.setExecutor(executor);
+		server.createContext(FEATURES_PATH, new FeaturesHandler());
+	}
+
+	/**
+	 * Create a source of synthetic genes on hg19-sized chromosomes. The same seed always
+	 * gives the same genes.
+	 */
+	public static MemoryFeatureSource createSyntheticSource(long seed, int genesPerMegabase) {
+		int megabases = 0;
+
+		for( int length : FeatureGenerator.HG19_CHROMOSOME_MEGABASES ) {
+			megabases += length;
+		}
+
+		return new FeatureGenerator(seed, megabases * genesPerMegabase).createSource();
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Returns the URL to give to DASFeatureSource.
+	 */
+	public String getFeaturesURL() {
+		return "http://localhost:" + getPort() + FEATURES_PATH;
+	}
+
+	/**
+	 * Set the delay before each response in milliseconds.
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * Set the maximum transfer rate of each response in bytes per second, 0 for no limit.
+	 */
+	public void setBandwidth(long bandwidth) {
+		this.bandwidth = bandwidth;
+	}
+
+	/**
+	 * Set the rate of requests answered with 503 Service Unavailable, from 0 to 1.
+	 */
+	public void setFailureRate(double failureRate) {
+		this.failureRate = failureRate;
+	}
+
+	public long getNumRequests() {
+		return numRequests.get();
+	}
+
+	public long getNumFailures() {
+		return numFailures.get();
+	}
+
+	public long getNumNotModified() {
+		return numNotModified.get();
+	}
+
+	/**
+	 * Returns the number of response bytes sent, as transferred (compressed).
+	 */
+	public long getNumBytes() {
+		return numBytes.get();
+	}
+
+	private static DateFormat createHTTPDateFormat() {
+		DateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format;
+	}
+
+	private boolean nextFailure() {
+		synchronized (random) {
+			return random.nextDouble() < failureRate;
+		}
+	}
+
+	private class FeaturesHandler implements HttpHandler {
+
+		public void handle(HttpExchange exchange) throws IOException {
+			numRequests.incrementAndGet();
+
+			try {
+				if( latency > 0 ) {
+					Thread.sleep(latency);
+				}
+
+				if( nextFailure() ) {
+					numFailures.incrementAndGet();
+					exchange.sendResponseHeaders(503, -1);
+					return;
+				}
+
+				Query query = Query.parse(exchange.getRequestURI().getRawQuery());
+
+				if( query == null ) {
+					exchange.sendResponseHeaders(400, -1);
+					return;
+				}
+
+				FeatureCollector collector = new FeatureCollector();
+				source.query(query.chr, query.start, query.end, query.types, null, collector);
+
+				byte[] body = createDocument(query, collector.getExons());
+
+				CRC32 crc = new CRC32();
+				crc.update(body);
+				String etag = "\"" + Long.toHexString(crc.getValue()) + "\"";
+
+				exchange.getResponseHeaders().set("ETag", etag);
+				exchange.getResponseHeaders().set("Last-Modified", createHTTPDateFormat().format(new Date(startTime)));
+
+				if( isNotModified(exchange, etag) ) {
+					numNotModified.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+					return;
+				}
+
+				String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+
+				if( encoding != null && encoding.toLowerCase(Locale.ENGLISH).contains("gzip") ) {
+					body = gzip(body);
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				}
+
+				exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=" + CHARSET);
+				exchange.sendResponseHeaders(200, body.length);
+
+				OutputStream out = exchange.getResponseBody();
+
+				if( bandwidth > 0 ) {
+					out = new ThrottledOutputStream(out, bandwidth);
+				}
+
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+
+				numBytes.addAndGet(body.length);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				exchange.close();
+			}
+		}
+
+		/*
+		 * If-None-Match takes precedence over If-Modified-Since, as in RFC 7232.
+		 */
+		private boolean isNotModified(HttpExchange exchange, String etag) {
+			String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+
+			if( ifNoneMatch != null ) {
+				for( String tag : ifNoneMatch.split(",") ) {
+					if( tag.trim().equals(etag) || tag.trim().equals("*") ) {
+						return true;
+					}
+				}
+
+				return false;
+			}
+
+			String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+
+			if( ifModifiedSince != null ) {
+				try {
+					return createHTTPDateFormat().parse(ifModifiedSince).getTime() >= startTime;
+				} catch (ParseException e) {
+					return false;
+				}
+			}
+
+			return false;
+		}
+
+		private byte[] gzip(byte[] body) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4);
+			GZIPOutputStream out = new GZIPOutputStream(bytes);
+
+			out.write(body);
+			out.close();
+
+			return bytes.toByteArray();
+		}
+
+		private byte[] createDocument(Query query, List<Exon> exons) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			Writer writer = new OutputStreamWriter(bytes, CHARSET);
+
+			DASXMLWriter das = new DASXMLWriter(writer);
+			das.startDocument("http://localhost:" + getPort() + FEATURES_PATH);
+			das.startSegment(new ViewScale(query.chr, query.start, query.end));
+
+			for( Exon e : exons ) {
+				das.writeFeature(e);
+			}
+
+			das.endSegment();
+			das.endDocument();
+
+			writer.close();
+
+			return bytes.toByteArray();
+		}
+	}
+
+	/*
+	 * segment=chr:start,stop;type=...;type=... (parameters separated by ';' or '&')
+	 */
+	private static class Query {
+
+		String chr;
+		int start;
+		int end;
+		String[] types;
+
+		static Query parse(String rawQuery) throws IOException {
+			if( rawQuery == null ) {
+				return null;
+			}
+
+			Query query = null;
+			List<String> types = new ArrayList<String>();
+
+			for( String parameter : rawQuery.split("[;&]") ) {
+				int index = parameter.indexOf('=');
+
+				if( index < 0 ) {
+					continue;
+				}
+
+				String name = parameter.substring(0, index);
+				String value = URLDecoder.decode(parameter.substring(index + 1), CHARSET);
+
+				if( name.equals("segment") ) {
+					query = parseSegment(value);
+				} else if( name.equals("type") ) {
+					types.add(value);
+				}
+			}
+
+			if( query != null ) {
+				query.types = types.toArray(new String[types.size()]);
+			}
+
+			return query;
+		}
+
+		private static Query parseSegment(String value) {
+			int colon = value.indexOf(':');
+			int comma = value.indexOf(',', colon + 1);
+
+			if( colon < 0 || comma < 0 ) {
+				return null;
+			}
+
+			Query query = new Query();
+
+			try {
+				query.chr = value.substring(0, colon);
+				query.start = Integer.parseInt(value.substring(colon + 1, comma));
+				query.end = Integer.parseInt(value.substring(comma + 1));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+
+			return query;
+		}
+	}
+
+	/*
+	 * Output stream writing at most bytesPerSecond, in small chunks.
+	 */
+	private static class ThrottledOutputStream extends FilterOutputStream {
+
+		private final long bytesPerSecond;
+		private final long startTime = System.nanoTime();
+		private long written = 0;
+
+		ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+			super(out);
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while( len > 0 ) {
+				int n = Math.min(len, THROTTLE_CHUNK_SIZE);
+
+				out.write(b, off, n);
+				out.flush();
+
+				written += n;
+				off += n;
+				len -= n;
+
+				long due = startTime + written * 1000000000L / bytesPerSecond;
+				long wait = due - System.nanoTime();
+
+				if( wait > 0 ) {
+					try {
+						Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("interrupted");
+					}
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = 8080;
+		String spec = null;
+		long latency = 0, bandwidth = 0;
+		double failureRate = 0.0;
+		long seed = DEFAULT_SEED;
+		int density = DEFAULT_GENES_PER_MEGABASE;
+
+		for( int i = 0; i + 1 < args.length; i += 2 ) {
+			String option = args[i], value = args[i + 1];
+
+			if( option.equals("--port") ) {
+				port = Integer.parseInt(value);
+			} else if( option.equals("--source") ) {
+				spec = value;
+			} else if( option.equals("--latency") ) {
+				latency = Long.parseLong(value);
+			} else if( option.equals("--bandwidth") ) {
+				bandwidth = Long.parseLong(value);
+			} else if( option.equals("--failure-rate") ) {
+				failureRate = Double.parseDouble(value);
+			} else if( option.equals("--seed") ) {
+				seed = Long.parseLong(value);
+			} else if( option.equals("--density") ) {
+				density = Integer.parseInt(value);
+			} else {
+				System.err.println("unknown option " + option);
+				System.err.println("options: --port N --source file:PATH|memory:PATH --latency MS --bandwidth BYTES_PER_SEC"
+				                   + " --failure-rate RATE --seed N --density GENES_PER_MB");
+				System.exit(1);
+			}
+		}
+
+		FeatureSource source = spec == null ? createSyntheticSource(seed, density) : FeatureSources.create(spec, null);
+
+		LocalDASServer server = new LocalDASServer(source, port, DEFAULT_THREADS, seed);
+		server.setLatency(latency);
+		server.setBandwidth(bandwidth);
+		server.setFailureRate(failureRate);
+		server.start();
+
+		System.out.println("serving " + source.getName() + " at " + server.getFeaturesURL());
+	}
+}